@@ -15,27 +15,47 @@
  */
 package com.meltmedia.jgroups.aws;
 
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.Filter;
-import com.amazonaws.services.ec2.model.Instance;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.jgroups.Address;
 import org.jgroups.Event;
+import org.jgroups.JChannel;
 import org.jgroups.Message;
+import org.jgroups.View;
+import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.Property;
 import org.jgroups.conf.ClassConfigurator;
 import org.jgroups.protocols.Discovery;
 import org.jgroups.protocols.PingData;
 import org.jgroups.protocols.PingHeader;
+import org.jgroups.protocols.pbcast.GMS;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.util.NameCache;
 import org.jgroups.util.Responses;
+import org.jgroups.util.Util;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * <p>
@@ -94,6 +114,169 @@ import java.util.stream.Collectors;
  * </pre>
  * </blockquote>
  *
+ * <h3>Network Interface Lookup</h3>
+ * <p>
+ * By default, members are found with the EC2 DescribeInstances action.  Setting lookup_mode to network_interfaces
+ * finds members with DescribeNetworkInterfaces instead, limited to the interfaces that share this instance's security
+ * groups (network_interface_scope="security_group") or subnet (network_interface_scope="subnet").  The primary and
+ * secondary private ip addresses of every interface are probed.  Any filters must use the DescribeNetworkInterfaces
+ * filter names, and the tags attribute is not supported in this mode.
+ * </p>
+ * <blockquote>
+ * <pre>
+ * &lt;com.meltmedia.jgroups.aws.AWS_PING
+ *   port_number="7800"
+ *   lookup_mode="network_interfaces"
+ *   network_interface_scope="subnet"/&gt;
+ * </pre>
+ * </blockquote>
+ *
+ * <h3>Instance State-Change Events</h3>
+ * <p>
+ * New instances can be found as soon as they start by consuming EC2 instance state-change notifications from an SQS
+ * queue that is the target of an EventBridge rule.  Set state_change_queue_url to the url of the queue.  Instances that
+ * start running are pinged right away and stopped instances are dropped from the cached members, while the full EC2
+ * lookup only runs every reconciliation_interval milliseconds.  The queue must be in the same region as the instance
+ * and the "sqs:ReceiveMessage" and "sqs:DeleteMessage" actions must be allowed.
+ * </p>
+ * <blockquote>
+ * <pre>
+ * &lt;com.meltmedia.jgroups.aws.AWS_PING
+ *   port_number="7800"
+ *   tags="Type,Environment"
+ *   state_change_queue_url="https://sqs.us-east-1.amazonaws.com/123456789012/instance-state"/&gt;
+ * </pre>
+ * </blockquote>
+ *
+ * <h3>Membership Changes</h3>
+ * <p>
+ * When a view change removes members, or a member is suspected, the cached members are invalidated and a focused
+ * discovery round runs right away.  It looks the members up again and pings the addresses that are new to the cluster
+ * along with the addresses of the members that left, so partitions caused by replaced instances heal in one round.
+ * This can be turned off with refresh_on_view_change="false".
+ * </p>
+ *
+ * <h3>Incremental Probes</h3>
+ * <p>
+ * By default, every host found is probed on every port from port_number to port_number + port_range.  With
+ * probe_strategy="incremental", a host is probed on port_number first, and on the next port each time a member answers
+ * from the highest port probed on it, so hosts with one member get one probe instead of port_range + 1.  Later rounds
+ * probe the ports that answered in the previous round and the next one, so the ports of members that left stop being
+ * probed.  The members of a host must bind consecutive ports from port_number,
+ * as the transports do when they search their port range.
+ * </p>
+ *
+ * <h3>Lookup Time Budget</h3>
+ * <p>
+ * The EC2 lookup in each discovery round is bounded by lookup_timeout milliseconds, which should be well below the
+ * join timeout of GMS.  When EC2 does not answer in time, the round uses the cached members, including any pages of
+ * the lookup that have already arrived, and the lookup keeps running in the background.  Members it finds late are
+ * pinged when it completes.
+ * </p>
+ *
+ * <h3>Shared Tag Index</h3>
+ * <p>
+ * When several clusters in an account are told apart by the values of their tags, and their members run in the same
+ * JVM, shared_tag_index="true" looks the fleet up once for all of them.  The query names the configured tags with a
+ * tag-key filter, and its result is indexed by the values of those tags, so each protocol finds its members locally.
+ * A snapshot is reused for tag_index_max_age milliseconds.  Protocols share a snapshot when they share an EC2 client
+ * and have the same tag names and filters.
+ * </p>
+ *
+ * <h3>Host Snapshot</h3>
+ * <p>
+ * When several JVMs on one host are members of the same cluster, host_snapshot_file names a file they share.  The JVM
+ * holding a lock on the file looks the members up and writes them to it, and the others read them from it without
+ * locking, so the host makes one lookup in each round instead of one per JVM.  A JVM looks the members up itself when
+ * the snapshot is older than host_snapshot_max_age milliseconds, and takes over the lock when its holder exits.  Each
+ * cluster needs a file of its own.
+ * </p>
+ * <blockquote>
+ * <pre>
+ * &lt;com.meltmedia.jgroups.aws.AWS_PING
+ *   port_number="7800"
+ *   tags="Type,Environment"
+ *   host_snapshot_file="/var/run/jgroups/cluster-a.snapshot"/&gt;
+ * </pre>
+ * </blockquote>
+ *
+ * <h3>Adaptive Lookup Interval</h3>
+ * <p>
+ * By default, every discovery round looks the members up.  With lookup_interval_min set, rounds use the cached members
+ * for an interval that adapts to the churn of the fleet: it doubles after each lookup that finds no change, up to
+ * lookup_interval_max, and drops back to lookup_interval_min as soon as members are added or removed.  Stable clusters
+ * make few EC2 calls, while deployments are tracked closely.  View changes and suspicions still look the members up
+ * right away.
+ * </p>
+ *
+ * <h3>Sharded Lookups</h3>
+ * <p>
+ * In accounts with thousands of instances, the DescribeInstances lookup can be split into shards by setting
+ * lookup_shard_filter, typically to availability-zone.  The shards are looked up concurrently, up to
+ * lookup_shard_parallelism at a time in each region, and their addresses merged, so a lookup takes about as long as
+ * its slowest shard.  The availability zones are looked up with DescribeAvailabilityZones, unless lookup_shard_values
+ * lists the shards.  Listed zones only apply to this instance's region, the additional regions always look their own
+ * zones up.  Other filters need their values listed, and instances matching none of them are not found.
+ * </p>
+ * <blockquote>
+ * <pre>
+ * &lt;com.meltmedia.jgroups.aws.AWS_PING
+ *   port_number="7800"
+ *   tags="Type,Environment"
+ *   lookup_shard_filter="availability-zone"/&gt;
+ * </pre>
+ * </blockquote>
+ *
+ * <h3>Mass Scale-Out</h3>
+ * <p>
+ * When an Auto Scaling group launches many instances at once, their first EC2 lookups and discovery rounds can be
+ * spread over up to startup_jitter milliseconds.  Each instance's delay is derived from its instance id and launch
+ * time, capped by the join timeout of GMS, and only applies within startup_jitter_window milliseconds of its launch.
+ * </p>
+ *
+ * <h3>Multiple Regions and Accounts</h3>
+ * <p>
+ * Members in peered VPCs of other regions, or other accounts, can be found by listing the regions, each optionally
+ * followed by the ARN of a role to assume there.  The regions are queried concurrently and their addresses merged.
+ * Each region's lookup is waited for up to region_lookup_timeout milliseconds; a slow or failing region contributes
+ * the addresses it returned last.  The tags and filters apply in every region.
+ * </p>
+ * <blockquote>
+ * <pre>
+ * &lt;com.meltmedia.jgroups.aws.AWS_PING
+ *   port_number="7800"
+ *   tags="Type,Environment"
+ *   regions="us-west-2,eu-west-1@arn:aws:iam::123456789012:role/jgroups-discovery"/&gt;
+ * </pre>
+ * </blockquote>
+ *
+ * <h3>Instance Health</h3>
+ * <p>
+ * Only running instances are looked up, unless the filters name the instance-state-name filter themselves.  With
+ * check_instance_status="true", instances that fail their instance or system status checks are dropped as well.  The
+ * statuses are looked up with DescribeInstanceStatus in batches of 100 instances and cached for
+ * instance_status_cache_ttl milliseconds.
+ * </p>
+ *
+ * <h3>Spot Interruptions and Rebalance Recommendations</h3>
+ * <p>
+ * With watch_interruption_notices="true", the instance metadata service is polled every interruption_notice_interval
+ * milliseconds for spot interruption notices and rebalance recommendations.  When an interruption notice appears,
+ * this node stops answering discovery requests, so it is not chosen as a coordinator or merge target, and the channel
+ * leaves the cluster gracefully.  The other members install the new view right away, instead of waiting for failure
+ * detection.  A rebalance recommendation does not mean the instance will be interrupted, so it is only logged, unless
+ * leave_on_rebalance_recommendation="true".  The node answers discovery requests again if the channel reconnects.
+ * </p>
+ *
+ * <h3>Flight Recorder Events</h3>
+ * <p>
+ * When running on a JVM with the flight recorder, AWS_PING emits the com.meltmedia.jgroups.aws.DiscoveryRound,
+ * Ec2Call, ImdsFetch and SendFanOut events, so slow joins can be correlated with GC and thread activity in a
+ * recording.  The events are disabled unless a recording enables them, and cost a branch when disabled.  Building
+ * AWS_PING needs JDK 11 or later for these events, but it still runs on Java 8.  JVMs without the flight recorder,
+ * such as Java 8 before update 262, emit no events.
+ * </p>
+ *
  * <h3>IAM Instance Profiles</h3>
  * <p>
  * Starting with version 1.1.0, instance profiles are supported by AWS_PING.  To use the instance profile associated with
@@ -139,8 +322,143 @@ public class AWS_PING extends Discovery {
   protected int port_range = 50;
   @Property(description = "The port number being used for cluster membership.  The default is 7800.")
   protected int port_number = 7800;
+  @Property(description = "How the ports of each host are probed, either range (every port from port_number to "
+      + "port_number + port_range) or incremental (port_number, and the next port each time the highest port probed "
+      + "answers).  The default is range.")
+  protected String probe_strategy = PROBE_STRATEGY_RANGE;
   @Property(description = "Turns on AWS error message logging.")
   private boolean log_aws_error_messages = false;
+  @Property(description = "How members are looked up, either instances (DescribeInstances) or network_interfaces "
+      + "(DescribeNetworkInterfaces).  The default is instances.")
+  protected String lookup_mode = LOOKUP_MODE_INSTANCES;
+  @Property(description = "When lookup_mode is network_interfaces, limits the interfaces to the ones sharing this "
+      + "instance's security_group or subnet.  The default is security_group.")
+  protected String network_interface_scope = NetworkInterfacesUtils.SCOPE_SECURITY_GROUP;
+  @Property(description = "The url of an SQS queue receiving EC2 instance state-change notifications.  When set, new "
+      + "instances are pinged as soon as they start running and the full lookup becomes a reconciliation.")
+  protected String state_change_queue_url;
+  @Property(description = "When state_change_queue_url is set, the number of milliseconds the cached members are used "
+      + "before they are reconciled with a full lookup.  The default is 60000.")
+  protected long reconciliation_interval = 60000;
+  @Property(description = "Runs a focused discovery round when a view change removes members or a member is "
+      + "suspected.  The default is true.")
+  protected boolean refresh_on_view_change = true;
+  @Property(description = "The number of milliseconds a discovery round waits for the EC2 lookup before using the "
+      + "cached members.  The lookup keeps running in the background.  0 waits for the lookup to complete.  "
+      + "The default is 2000.")
+  protected long lookup_timeout = 2000;
+  @Property(description = "The maximum number of instances per DescribeInstances page.  Pages are added to the cached "
+      + "members as they arrive.  0 lets EC2 decide.  The default is 0.")
+  protected int lookup_page_size = 0;
+  @Property(description = "Splits the DescribeInstances lookup into one shard per value of this filter, such as "
+      + "availability-zone, and runs the shards concurrently.  Unset looks all the instances up at once.")
+  protected String lookup_shard_filter;
+  @Property(description = "When lookup_shard_filter is set, a comma delimited list of its values, one per shard.  "
+      + "Instances that match none of the values are not found.  Left unset with the availability-zone filter, the "
+      + "shards are the availability zones of each region.  Listed availability zones only apply to this instance's "
+      + "region, the additional regions look their own zones up.")
+  protected String lookup_shard_values;
+  @Property(description = "When lookup_shard_filter is set, the maximum number of shards looked up at once in each "
+      + "region.  The default is 4.")
+  protected int lookup_shard_parallelism = 4;
+  @Property(description = "The minimum number of milliseconds discovery rounds use the cached members before looking "
+      + "them up again.  The interval doubles after each lookup that finds no change, up to lookup_interval_max, and "
+      + "drops back to this value when members are added or removed.  0 looks the members up in every discovery "
+      + "round.  The default is 0.")
+  protected long lookup_interval_min = 0;
+  @Property(description = "When lookup_interval_min is set, the maximum number of milliseconds discovery rounds use "
+      + "the cached members while the fleet is stable.  The default is 60000.")
+  protected long lookup_interval_max = 60000;
+  @Property(description = "The maximum number of milliseconds the first discovery round, and the first EC2 lookup, of "
+      + "a newly launched instance are delayed, so instances launched together spread their load.  The delay is "
+      + "derived from the instance id and launch time, and capped by the join timeout of GMS.  0 disables the delay.  "
+      + "The default is 0.")
+  protected long startup_jitter = 0;
+  @Property(description = "When startup_jitter is set, the number of milliseconds after its launch that an instance is "
+      + "delayed.  Instances started longer ago are not delayed.  0 delays instances regardless of their launch time.  "
+      + "The default is 600000.")
+  protected long startup_jitter_window = 600000;
+  @Property(description = "Shares one EC2 client, with its connection pool and threads, between all the AWS_PING "
+      + "protocols in the JVM with the same region and credentials.  The default is true.")
+  protected boolean share_ec2_client = true;
+  @Property(description = "Answers the lookups of all the AWS_PING protocols in the JVM that share an EC2 client, tags, "
+      + "filters and lookup settings from one snapshot, queried by tag name and indexed by tag value, so clusters told apart by their "
+      + "tag values make one DescribeInstances query between them.  The default is false.")
+  protected boolean shared_tag_index = false;
+  @Property(description = "When shared_tag_index is true, the number of milliseconds a snapshot is reused before it is "
+      + "queried again.  0 only shares the queries in flight.  The default is 1000.")
+  protected long tag_index_max_age = 1000;
+  @Property(description = "The path of a file shared by the JVMs on this host that are members of the cluster.  One of "
+      + "them looks the members up and writes them to the file, and the others read them from it.  Each cluster needs "
+      + "a file of its own.  The default is to look the members up in every JVM.")
+  protected String host_snapshot_file;
+  @Property(description = "When host_snapshot_file is set, the number of milliseconds the members written to the file "
+      + "are read before a JVM looks them up itself.  The default is 10000.")
+  protected long host_snapshot_max_age = 10000;
+  @Property(description = "The number of milliseconds between background refreshes of the credentials from "
+      + "credentials_provider_class.  The credentials are cached and shared by all the AWS_PING protocols in the JVM "
+      + "with the same provider, so EC2 calls never wait for a refresh.  0 uses the provider directly.  The default is "
+      + "300000.")
+  protected long credentials_refresh_interval = 300000;
+  @Property(description = "Polls the instance metadata for spot interruption notices and rebalance recommendations, "
+      + "and leaves the cluster gracefully when an interruption notice appears.  The default is false.")
+  protected boolean watch_interruption_notices = false;
+  @Property(description = "The number of milliseconds between polls for interruption notices.  The default is 5000.")
+  protected long interruption_notice_interval = 5000;
+  @Property(description = "When watch_interruption_notices is true, also leaves the cluster when a rebalance "
+      + "recommendation appears, instead of only logging it.  The default is false.")
+  protected boolean leave_on_rebalance_recommendation = false;
+
+  @Property(description = "A comma delimited list of additional regions to look members up in, each optionally "
+      + "followed by '@' and the ARN of a role to assume there (REGION[@ROLE_ARN]).  This instance's region is always "
+      + "included.")
+  protected String regions;
+  @Property(description = "When regions is set, the number of milliseconds each region's lookup is waited for before "
+      + "its last addresses are used.  0 waits for every region.  The default is 1500.")
+  protected long region_lookup_timeout = 1500;
+
+  @Property(description = "Drops instances that fail their instance or system status checks, looked up with "
+      + "DescribeInstanceStatus.  The default is false.")
+  protected boolean check_instance_status = false;
+  @Property(description = "When check_instance_status is true, the number of milliseconds an instance status is "
+      + "cached.  The default is 30000.")
+  protected long instance_status_cache_ttl = 30000;
+
+  @Property(description = "The number of milliseconds the EC2 client waits for a connection to be established.  0 waits "
+      + "forever.  The default is 10000.")
+  protected int ec2_connection_timeout = 10000;
+  @Property(description = "The number of milliseconds the EC2 client waits for data on an open connection.  0 waits "
+      + "forever.  The default is 50000.")
+  protected int ec2_socket_timeout = 50000;
+  @Property(description = "The number of milliseconds a whole EC2 request may take, including retries of reads.  0 "
+      + "disables the timeout.  The default is 0.")
+  protected int ec2_request_timeout = 0;
+  @Property(description = "The number of milliseconds a pooled EC2 connection is kept before it is closed.  -1 keeps "
+      + "connections until they go idle.  The default is -1.")
+  protected long ec2_connection_ttl = -1;
+  @Property(description = "Sends TCP keep-alive probes on idle EC2 connections.  The default is false.")
+  protected boolean ec2_tcp_keep_alive = false;
+  @Property(description = "The maximum number of open connections of the EC2 client.  The default is 50.")
+  protected int ec2_max_connections = 50;
+  @Property(description = "Asks EC2 for gzip compressed responses, which shrinks large DescribeInstances documents.  "
+      + "The default is false.")
+  protected boolean ec2_use_gzip = false;
+  @Property(description = "The number of times a failed EC2 request is retried.  -1 uses the SDK's retry policy.  The "
+      + "default is -1.")
+  protected int ec2_max_error_retry = -1;
+
+  @ManagedAttribute(description = "The number of milliseconds the first discovery round of this instance was delayed "
+      + "by startup_jitter.")
+  protected volatile long startup_delay = 0;
+
+  @ManagedAttribute(description = "True if an interruption notice was received and this node is leaving the cluster.")
+  protected volatile boolean leaving = false;
+
+  static final String INSTANCE_STATE_FILTER = "instance-state-name";
+  static final String LOOKUP_MODE_INSTANCES = "instances";
+  static final String LOOKUP_MODE_NETWORK_INTERFACES = "network_interfaces";
+  static final String PROBE_STRATEGY_RANGE = "range";
+  static final String PROBE_STRATEGY_INCREMENTAL = "incremental";
 
   /**
    * This is looked up using the endpoint http://instance-data/latest/dynamic/instance-identity/document
@@ -157,6 +475,11 @@ public class AWS_PING extends Discovery {
    */
   private IPAddressUtils ipAddressUtils;
 
+  /**
+   * The ports probed on each host, only set when probe_strategy is incremental
+   */
+  private HostProbes hostProbes;
+
   /**
    * Utility for working with tags
    */
@@ -167,6 +490,84 @@ public class AWS_PING extends Discovery {
    */
   private FilterUtils filterUtils;
 
+  /**
+   * Utility for finding members by instance
+   */
+  private InstancesUtils instancesUtils;
+
+  /**
+   * Utility for finding members by network interface, only set when lookup_mode is network_interfaces
+   */
+  private NetworkInterfacesUtils networkInterfacesUtils;
+
+  /**
+   * Looks members up in all the regions, only set when regions is set
+   */
+  private MultiRegionLookup multiRegionLookup;
+
+  /**
+   * The clients for the additional regions, only set when regions is set
+   */
+  private final List<AmazonEC2> regionalEc2 = new ArrayList<>();
+
+  /**
+   * The credentials and STS clients of the roles assumed in additional regions
+   */
+  private final List<AssumedRole> assumedRoles = new ArrayList<>();
+
+  /**
+   * Drop impaired instances in each region, only set when check_instance_status is true
+   */
+  private final List<InstanceStatusUtils> statusUtils = new ArrayList<>();
+
+  /**
+   * The lookups sharing tag indexed snapshots in each region, only set when shared_tag_index is true
+   */
+  private final List<TagIndexedInstancesUtils> tagIndexes = new ArrayList<>();
+
+  /**
+   * The members shared with the other JVMs on this host, only set when host_snapshot_file is set
+   */
+  private HostSnapshot hostSnapshot;
+
+  /**
+   * The private ip addresses from the last lookup, kept up to date by the state change listener
+   */
+  private final AddressCache addressCache = new AddressCache();
+
+  /**
+   * Consumes instance state-change notifications, only set when state_change_queue_url is set
+   */
+  private InstanceStateChangeListener stateChangeListener;
+
+  /**
+   * Runs the blocking EC2 lookups, so they do not hold up the discovery rounds or the transport's timer
+   */
+  private ExecutorService lookupExecutor;
+
+  /**
+   * The EC2 lookup in flight, bounded by lookup_timeout in each discovery round
+   */
+  private BackgroundLookup backgroundLookup;
+
+  /**
+   * How long the cached members are used between lookups, only set when lookup_interval_min is set
+   */
+  private AdaptiveLookupInterval lookupInterval;
+  private EC2ClientProfile ec2ClientProfile;
+  private AWSCredentialsProvider credentialsProvider;
+  private volatile long firstRoundDeadline = 0;
+
+  /**
+   * The client for the interruption notice watcher, only set when watch_interruption_notices is true
+   */
+  private CloseableHttpClient metadataClient;
+
+  /**
+   * Polls for interruption notices, only set when watch_interruption_notices is true
+   */
+  private InterruptionNoticeWatcher interruptionNoticeWatcher;
+
   /**
    * Scans the environment for information about the AWS node that we are
    * currently running on and parses the filters and tags.
@@ -174,43 +575,678 @@ public class AWS_PING extends Discovery {
   public void init() throws Exception {
     super.init();
 
-    //get the instance identity
-    try (CloseableHttpClient client = HttpClients.createDefault()) {
-      this.instanceIdentity = InstanceIdentity.getIdentity(client);
+    final boolean networkInterfaceLookup = LOOKUP_MODE_NETWORK_INTERFACES.equals(lookup_mode);
+    if (!networkInterfaceLookup && !LOOKUP_MODE_INSTANCES.equals(lookup_mode)) {
+      throw new IllegalArgumentException("unknown lookup_mode '" + lookup_mode + "', expected "
+          + LOOKUP_MODE_INSTANCES + " or " + LOOKUP_MODE_NETWORK_INTERFACES);
+    }
+    if (networkInterfaceLookup && tags != null && !tags.trim().isEmpty()) {
+      throw new IllegalArgumentException("tags cannot be used with lookup_mode " + LOOKUP_MODE_NETWORK_INTERFACES);
+    }
+    if (networkInterfaceLookup && regions != null && !regions.trim().isEmpty()) {
+      throw new IllegalArgumentException("regions cannot be used with lookup_mode " + LOOKUP_MODE_NETWORK_INTERFACES);
+    }
+    if (!PROBE_STRATEGY_RANGE.equals(probe_strategy) && !PROBE_STRATEGY_INCREMENTAL.equals(probe_strategy)) {
+      throw new IllegalArgumentException("unknown probe_strategy '" + probe_strategy + "', expected "
+          + PROBE_STRATEGY_RANGE + " or " + PROBE_STRATEGY_INCREMENTAL);
+    }
+    final boolean shardedLookup = lookup_shard_filter != null && !lookup_shard_filter.trim().isEmpty();
+    if (networkInterfaceLookup && shardedLookup) {
+      throw new IllegalArgumentException("lookup_shard_filter cannot be used with lookup_mode "
+          + LOOKUP_MODE_NETWORK_INTERFACES);
     }
+    if (shardedLookup && ShardedInstancesUtils.parseValues(lookup_shard_values).isEmpty()
+        && !ShardedInstancesUtils.AVAILABILITY_ZONE_FILTER.equals(lookup_shard_filter.trim())) {
+      throw new IllegalArgumentException("lookup_shard_values must be set when lookup_shard_filter is not "
+          + ShardedInstancesUtils.AVAILABILITY_ZONE_FILTER);
+    }
+    if (networkInterfaceLookup && shared_tag_index) {
+      throw new IllegalArgumentException("shared_tag_index cannot be used with lookup_mode "
+          + LOOKUP_MODE_NETWORK_INTERFACES);
+    }
+    if (tag_index_max_age < 0) {
+      throw new IllegalArgumentException("tag_index_max_age cannot be negative");
+    }
+    if (host_snapshot_max_age <= 0) {
+      throw new IllegalArgumentException("host_snapshot_max_age must be positive");
+    }
+    if (lookup_interval_min < 0) {
+      throw new IllegalArgumentException("lookup_interval_min cannot be negative");
+    }
+    if (lookup_interval_min > 0 && lookup_interval_max < lookup_interval_min) {
+      throw new IllegalArgumentException("lookup_interval_max cannot be less than lookup_interval_min");
+    }
+    if (lookup_shard_parallelism <= 0) {
+      throw new IllegalArgumentException("lookup_shard_parallelism must be positive");
+    }
+    if (region_lookup_timeout < 0) {
+      throw new IllegalArgumentException("region_lookup_timeout cannot be negative");
+    }
+    if (instance_status_cache_ttl < 0) {
+      throw new IllegalArgumentException("instance_status_cache_ttl cannot be negative");
+    }
+    if (reconciliation_interval < 0) {
+      throw new IllegalArgumentException("reconciliation_interval cannot be negative");
+    }
+    if (lookup_timeout < 0) {
+      throw new IllegalArgumentException("lookup_timeout cannot be negative");
+    }
+    if (lookup_page_size != 0 && (lookup_page_size < 5 || lookup_page_size > 1000)) {
+      throw new IllegalArgumentException("lookup_page_size must be 0 or between 5 and 1000");
+    }
+    if (state_change_queue_url != null && !EC2Factory.isSqsAvailable()) {
+      throw new IllegalArgumentException("state_change_queue_url requires com.amazonaws:aws-java-sdk-sqs on the classpath");
+    }
+    if (regions != null && MultiRegionLookup.parseRegions(regions).stream().anyMatch(region -> region.roleArn != null)
+        && !EC2Factory.isStsAvailable()) {
+      throw new IllegalArgumentException("regions with roles require com.amazonaws:aws-java-sdk-sts on the classpath");
+    }
+    if (startup_jitter < 0) {
+      throw new IllegalArgumentException("startup_jitter cannot be negative");
+    }
+    if (startup_jitter_window < 0) {
+      throw new IllegalArgumentException("startup_jitter_window cannot be negative");
+    }
+    if (credentials_refresh_interval < 0) {
+      throw new IllegalArgumentException("credentials_refresh_interval cannot be negative");
+    }
+    if (interruption_notice_interval <= 0) {
+      throw new IllegalArgumentException("interruption_notice_interval must be positive");
+    }
+    this.ec2ClientProfile = new EC2ClientProfile(
+        ec2_connection_timeout,
+        ec2_socket_timeout,
+        ec2_request_timeout,
+        ec2_connection_ttl,
+        ec2_tcp_keep_alive,
+        ec2_max_connections,
+        ec2_use_gzip,
+        ec2_max_error_retry);
 
-    //setup ec2 client
-    this.ec2 = EC2Factory.create(
-        instanceIdentity,
-        access_key,
-        secret_key,
-        credentials_provider_class,
-        new CredentialsProviderFactory(),
-        log_aws_error_messages);
+    this.lookupExecutor = Executors.newCachedThreadPool(runnable -> {
+      final Thread thread = new Thread(runnable, "AWS_PING-lookup");
+      thread.setDaemon(true);
+      return thread;
+    });
 
-    this.ipAddressUtils = new IPAddressUtils(port_number, port_range);
-    this.tagUtils = new TagsUtils(ec2, instanceIdentity, tags).validateTags();
-    this.filterUtils = new FilterUtils(filters, tagUtils);
+    // the stages below only wait on what they depend on, so the metadata fetches, the credentials provider and the
+    // client construction overlap, and the local configuration is done while EC2 validates the tags.
+    final long initStart = System.nanoTime();
+    final CloseableHttpClient initClient = HttpClients.createDefault();
+    final CompletableFuture<InstanceIdentity> identityStage =
+        stage("instance identity", () -> getInstanceIdentity(initClient));
+    final CompletableFuture<List<Filter>> scopeStage = networkInterfaceLookup ?
+        stage("network interface scope", () ->
+            NetworkInterfacesUtils.scopeFilters(network_interface_scope, new InstanceMetadata(initClient))) :
+        CompletableFuture.completedFuture(null);
+    final CompletableFuture<AWSCredentialsProvider> credentialsStage =
+        stage("credentials provider", () -> EC2Factory.acquireCredentialsProvider(
+            access_key,
+            secret_key,
+            credentials_provider_class,
+            new CredentialsProviderFactory(),
+            credentials_refresh_interval));
+    final CompletableFuture<AmazonEC2> ec2Stage = identityStage.thenCombineAsync(credentialsStage,
+        (identity, credentials) -> timed("ec2 client", () -> createEc2Client(identity.region, credentials)),
+        lookupExecutor);
+    final CompletableFuture<TagsUtils> tagsStage = ec2Stage.thenCombineAsync(identityStage,
+        (client, identity) -> timed("tag validation", () -> new TagsUtils(client, identity, tags).validateTags()),
+        lookupExecutor);
+
+    try {
+      this.ipAddressUtils = new IPAddressUtils(port_number, port_range);
+      if (PROBE_STRATEGY_INCREMENTAL.equals(probe_strategy)) {
+        this.hostProbes = new HostProbes(port_number, port_range);
+      }
+      if (watch_interruption_notices) {
+        final int metadataTimeout = (int) Math.min(interruption_notice_interval, 1000);
+        this.metadataClient = HttpClients.custom()
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(metadataTimeout)
+                .setSocketTimeout(metadataTimeout)
+                .build())
+            .build();
+        this.interruptionNoticeWatcher = new InterruptionNoticeWatcher(
+            new InstanceMetadata(metadataClient),
+            this::interruptionNotice);
+      }
+
+      this.instanceIdentity = await(identityStage);
+      if (state_change_queue_url != null) {
+        this.stateChangeListener = InstanceStateChangeListener.create(
+            await(credentialsStage),
+            instanceIdentity.region,
+            state_change_queue_url,
+            addressCache,
+            this::getClusterPrivateIpAddresses,
+            this::getInstancePrivateIpAddresses,
+            this::sendDiscoveryRequests);
+      }
+
+      this.credentialsProvider = await(credentialsStage);
+      this.ec2 = await(ec2Stage);
+      this.instancesUtils = createInstancesUtils(ec2, true);
+      if (regions != null && !regions.trim().isEmpty()) {
+        this.multiRegionLookup = createMultiRegionLookup(await(credentialsStage));
+      }
+      if (networkInterfaceLookup) {
+        this.networkInterfacesUtils = new NetworkInterfacesUtils(ec2, await(scopeStage));
+      }
+      this.tagUtils = await(tagsStage);
+      this.filterUtils = new FilterUtils(filters, tagUtils);
+      if (host_snapshot_file != null && !host_snapshot_file.trim().isEmpty()) {
+        this.hostSnapshot = new HostSnapshot(
+            Paths.get(host_snapshot_file.trim()),
+            getHostSnapshotKey(),
+            host_snapshot_max_age);
+      }
+    } catch (Exception e) {
+      // stages still running keep the EC2 client, the credentials and the executor until every stage is done
+      CompletableFuture.allOf(identityStage, scopeStage, credentialsStage, ec2Stage, tagsStage).handle((r, error) -> {
+        ec2Stage.thenAccept(EC2Factory::release);
+        credentialsStage.thenAccept(EC2Factory::releaseCredentialsProvider);
+        lookupExecutor.shutdown();
+        return null;
+      });
+      this.credentialsProvider = null;
+      releaseRegionalClients();
+      releaseTagIndexes();
+      releaseHostSnapshot();
+      if (stateChangeListener != null) {
+        stateChangeListener.close();
+        stateChangeListener = null;
+      }
+      Util.close(metadataClient);
+      this.ec2 = null;
+      throw e;
+    } finally {
+      // the scope stage may still be reading the metadata when the identity stage failed
+      CompletableFuture.allOf(identityStage, scopeStage).handle((r, error) -> {
+        Util.close(initClient);
+        return null;
+      });
+    }
+
+    // look the members up speculatively, so the first discovery round finds them in flight or done.  When instances
+    // launched together are staggered, the lookup waits for this instance's turn.
+    this.lookupInterval = lookup_interval_min > 0 ?
+        new AdaptiveLookupInterval(lookup_interval_min, lookup_interval_max) :
+        null;
+    this.backgroundLookup = new BackgroundLookup(
+        this::lookUpMembers,
+        addressCache,
+        lookupExecutor,
+        this::sendDiscoveryRequests);
+    final GMS gms = getProtocolStack() != null ? getProtocolStack().findProtocol(GMS.class) : null;
+    this.startup_delay = StartupJitter.delay(
+        instanceIdentity,
+        startup_jitter,
+        startup_jitter_window,
+        gms != null ? gms.getJoinTimeout() : 0,
+        System.currentTimeMillis());
+    if (startup_delay > 0) {
+      log.info("Delaying the first discovery round by %d ms", startup_delay);
+      this.firstRoundDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startup_delay);
+      lookupExecutor.execute(() -> {
+        if (awaitFirstRound()) {
+          backgroundLookup.start();
+        }
+      });
+    } else {
+      backgroundLookup.start();
+    }
+    log.debug("init stages took %d ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - initStart));
 
     log.info("Configured for instance: " + instanceIdentity.instanceId);
+    if (networkInterfacesUtils != null) {
+      log.info("Configured with network interface scope [%s]", networkInterfacesUtils.getScopeFilters());
+    }
     filterUtils.getAwsFilters().ifPresent(f -> log.info("Configured with filters [%s]", f));
     tagUtils.getAwsTagNames().ifPresent(t -> log.info("Configured with tags [%s]", t));
+    if (!EC2ClientProfile.DEFAULT.equals(ec2ClientProfile)) {
+      log.info("Configured with EC2 client profile [%s]", ec2ClientProfile);
+    }
+    if (stateChangeListener != null) {
+      log.info("Configured with state change queue [%s]", state_change_queue_url);
+    }
+    if (hostSnapshot != null) {
+      log.info("Configured with host snapshot [%s]", host_snapshot_file);
+    }
   }
 
   /**
-   * Stops this protocol.
+   * Fetches the identity of this instance.  Simulations override this to run outside of EC2.
+   *
+   * @param client the client for the metadata service.
+   * @return the identity of this instance.
+   */
+  protected InstanceIdentity getInstanceIdentity(final HttpClient client) throws IOException {
+    return InstanceIdentity.getIdentity(client);
+  }
+
+  /**
+   * Creates or acquires the EC2 client for a region.  The client is released with EC2Factory.release when this
+   * protocol stops.  Simulations override this to substitute EC2.
+   *
+   * @param region the region of the client.
+   * @param credentials the credentials of this instance.
+   * @return the client.
+   */
+  protected AmazonEC2 createEc2Client(final String region, final AWSCredentialsProvider credentials) {
+    return share_ec2_client ?
+        EC2Factory.acquire(
+            region,
+            access_key,
+            secret_key,
+            credentials_provider_class,
+            credentials,
+            log_aws_error_messages,
+            ec2ClientProfile) :
+        EC2Factory.create(region, credentials, log_aws_error_messages, ec2ClientProfile);
+  }
+
+  /**
+   * Creates a client for each additional region, assuming the configured roles, and the lookup that queries them
+   * along with this instance's region.
+   *
+   * @param credentials the credentials of this instance, used directly or to assume the roles.
+   */
+  private MultiRegionLookup createMultiRegionLookup(final AWSCredentialsProvider credentials) {
+    final Map<String, InstancesUtils> lookups = new LinkedHashMap<>();
+    lookups.put(instanceIdentity.region, instancesUtils);
+    for (final MultiRegionLookup.Region region : MultiRegionLookup.parseRegions(regions)) {
+      if (lookups.containsKey(region.toString())) {
+        continue;
+      }
+      final AmazonEC2 client;
+      if (region.roleArn == null) {
+        client = createEc2Client(region.region, credentials);
+      } else {
+        final AssumedRole role = new AssumedRole(
+            credentials,
+            ec2ClientProfile.toClientConfiguration(),
+            instanceIdentity.region,
+            region.roleArn,
+            "jgroups-aws-" + instanceIdentity.instanceId);
+        assumedRoles.add(role);
+        client = EC2Factory.create(
+            region.region,
+            role.getCredentialsProvider(),
+            log_aws_error_messages,
+            ec2ClientProfile);
+      }
+      regionalEc2.add(client);
+      lookups.put(region.toString(), createInstancesUtils(client, false));
+    }
+    log.info("Configured with regions [%s]", lookups.keySet());
+    return new MultiRegionLookup(lookups, lookupExecutor, region_lookup_timeout);
+  }
+
+  /**
+   * Creates the instance lookup for a client, dropping impaired instances when check_instance_status is true, and
+   * split into shards when lookup_shard_filter is set.  Listed availability zones only exist in this instance's region,
+   * so the additional regions look their own zones up.
+   *
+   * @param client the client of the region.
+   * @param homeRegion true for this instance's region, false for the additional regions.
+   */
+  private InstancesUtils createInstancesUtils(final AmazonEC2 client, final boolean homeRegion) {
+    InstanceStatusUtils status = null;
+    if (check_instance_status) {
+      status = new InstanceStatusUtils(client, instance_status_cache_ttl);
+      statusUtils.add(status);
+    }
+    final InstancesUtils instances;
+    if (lookup_shard_filter == null || lookup_shard_filter.trim().isEmpty()) {
+      instances = new InstancesUtils(client, lookup_page_size, status);
+    } else {
+      final String shardFilter = lookup_shard_filter.trim();
+      instances = new ShardedInstancesUtils(
+          client,
+          lookup_page_size,
+          status,
+          shardFilter,
+          homeRegion || !ShardedInstancesUtils.AVAILABILITY_ZONE_FILTER.equals(shardFilter) ?
+              ShardedInstancesUtils.parseValues(lookup_shard_values) :
+              Collections.<String>emptyList(),
+          lookupExecutor,
+          lookup_shard_parallelism);
+    }
+    if (!shared_tag_index) {
+      return instances;
+    }
+    final TagIndexedInstancesUtils indexed = new TagIndexedInstancesUtils(client, instances, tag_index_max_age);
+    tagIndexes.add(indexed);
+    return indexed;
+  }
+
+  /**
+   * @return the number of instances dropped from lookups because they were impaired.
+   */
+  @ManagedAttribute(description = "The number of instances dropped from member lookups because they failed their status checks.")
+  public long getImpairedInstancesDropped() {
+    return statusUtils.stream().mapToLong(InstanceStatusUtils::getDropped).sum();
+  }
+
+  /**
+   * @return the number of instances currently known to be impaired.
+   */
+  @ManagedAttribute(description = "The number of instances currently known to fail their status checks.")
+  public long getImpairedInstances() {
+    return statusUtils.stream().mapToLong(InstanceStatusUtils::getImpaired).sum();
+  }
+
+  /**
+   * Releases the tag indexed snapshots shared with other protocols.
+   */
+  private void releaseTagIndexes() {
+    tagIndexes.forEach(TagIndexedInstancesUtils::release);
+    tagIndexes.clear();
+  }
+
+  /**
+   * @return the number of queries made for the shared tag indexed snapshots.
+   */
+  @ManagedAttribute(description = "The number of DescribeInstances queries made for the tag indexed snapshots this "
+      + "protocol shares, by any of the protocols sharing them.")
+  public long getTagIndexQueries() {
+    return tagIndexes.stream().mapToLong(TagIndexedInstancesUtils::getQueries).sum();
+  }
+
+  /**
+   * @return the number of lookups answered by the shared tag indexed snapshots.
+   */
+  @ManagedAttribute(description = "The number of member lookups answered by the tag indexed snapshots this protocol "
+      + "shares, for any of the protocols sharing them.")
+  public long getTagIndexLookups() {
+    return tagIndexes.stream().mapToLong(TagIndexedInstancesUtils::getLookups).sum();
+  }
+
+  /**
+   * @return the number of ports probed on the hosts found.
+   */
+  @ManagedAttribute(description = "The number of ports probed on the hosts found, when probe_strategy is incremental, "
+      + "or 0.")
+  public long getProbedPorts() {
+    final HostProbes probes = hostProbes;
+    return probes == null ? 0 : probes.getProbedPorts();
+  }
+
+  /**
+   * Releases the file shared with the other JVMs on this host.
+   */
+  private void releaseHostSnapshot() {
+    if (hostSnapshot != null) {
+      hostSnapshot.release();
+      hostSnapshot = null;
+    }
+  }
+
+  /**
+   * @return the lookup and port range the snapshot is written for, so clusters never read each other's members.
+   */
+  private String getHostSnapshotKey() {
+    final List<Filter> filters = new ArrayList<>();
+    if (networkInterfacesUtils != null) {
+      filters.addAll(networkInterfacesUtils.getScopeFilters());
+      filterUtils.getAwsFilters().ifPresent(filters::addAll);
+    } else {
+      filters.addAll(getInstanceFilters());
+    }
+    final StringBuilder key = new StringBuilder()
+        .append(lookup_mode).append('|')
+        .append(instanceIdentity.region).append('|')
+        .append(regions == null ? "" : regions.trim()).append('|')
+        .append(port_number).append('+').append(port_range);
+    for (final Filter filter : filters) {
+      key.append('|').append(filter.getName()).append('=').append(filter.getValues());
+    }
+    return key.toString();
+  }
+
+  /**
+   * @return true if this JVM writes the members to the host snapshot.
+   */
+  @ManagedAttribute(description = "True if this JVM holds the lock on host_snapshot_file, and writes the members the "
+      + "other JVMs on the host read.")
+  public boolean isHostSnapshotWriter() {
+    final HostSnapshot snapshot = hostSnapshot;
+    return snapshot != null && snapshot.isLeaseHolder();
+  }
+
+  /**
+   * @return the number of lookups answered from the host snapshot.
+   */
+  @ManagedAttribute(description = "The number of member lookups answered from the members another JVM on the host "
+      + "wrote to host_snapshot_file.")
+  public long getHostSnapshotReads() {
+    final HostSnapshot snapshot = hostSnapshot;
+    return snapshot == null ? 0 : snapshot.getReads();
+  }
+
+  /**
+   * Releases the clients, and the credentials of the assumed roles, for the additional regions.
+   */
+  private void releaseRegionalClients() {
+    regionalEc2.forEach(EC2Factory::release);
+    regionalEc2.clear();
+    assumedRoles.forEach(AssumedRole::close);
+    assumedRoles.clear();
+  }
+
+  /**
+   * @return the number of milliseconds the cached members are currently used between lookups.
+   */
+  @ManagedAttribute(description = "The number of milliseconds the cached members are currently used between lookups, "
+      + "or 0 when every discovery round looks them up.")
+  public long getLookupInterval() {
+    final AdaptiveLookupInterval interval = lookupInterval;
+    return interval == null ? 0 : interval.getInterval();
+  }
+
+  /**
+   * @return the number of member addresses added or removed per minute.
+   */
+  @ManagedAttribute(description = "The number of member addresses added or removed per minute, averaged over the last "
+      + "few minutes of lookups, when lookup_interval_min is set.")
+  public double getLookupChurnRate() {
+    final AdaptiveLookupInterval interval = lookupInterval;
+    return interval == null ? 0 : interval.getChurnRate();
+  }
+
+  /**
+   * @return the duration of the last lookup of each shard in this instance's region.
+   */
+  @ManagedAttribute(description = "The duration of the last lookup of each shard in this instance's region, in "
+      + "milliseconds.")
+  public String getShardLookupLatencies() {
+    final InstancesUtils utils = instancesUtils;
+    return utils instanceof ShardedInstancesUtils ? ((ShardedInstancesUtils) utils).getLatencies().toString() : "";
+  }
+
+  /**
+   * @return the duration of the last lookup in each region.
+   */
+  @ManagedAttribute(description = "The duration of the last member lookup in each region, in milliseconds.")
+  public String getRegionLookupLatencies() {
+    return multiRegionLookup == null ? "" : multiRegionLookup.getLatencies().toString();
+  }
+
+  /**
+   * @return the number of milliseconds since the cached credentials were refreshed, or -1 when they are not cached.
+   */
+  @ManagedAttribute(description = "The number of milliseconds since the cached AWS credentials were refreshed, or -1 "
+      + "when credentials are not cached.")
+  public long getCredentialsAge() {
+    final AWSCredentialsProvider provider = credentialsProvider;
+    return provider instanceof RefreshingCredentialsProvider ? ((RefreshingCredentialsProvider) provider).getAge() : -1;
+  }
+
+  /**
+   * @return the number of background credentials refreshes that failed.
+   */
+  @ManagedAttribute(description = "The number of background refreshes of the cached AWS credentials that failed.")
+  public long getCredentialsRefreshFailures() {
+    final AWSCredentialsProvider provider = credentialsProvider;
+    return provider instanceof RefreshingCredentialsProvider ? ((RefreshingCredentialsProvider) provider).getFailures() : 0;
+  }
+
+  /**
+   * Runs an init stage on the lookup executor.
+   */
+  private <T> CompletableFuture<T> stage(final String name, final Callable<T> task) {
+    return CompletableFuture.supplyAsync(() -> timed(name, task), lookupExecutor);
+  }
+
+  /**
+   * Runs an init stage, logging how long it took.
+   */
+  private <T> T timed(final String name, final Callable<T> task) {
+    final long start = System.nanoTime();
+    try {
+      return task.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CompletionException(e);
+    } finally {
+      log.debug("init stage %s took %d ms", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+  }
+
+  /**
+   * Waits for an init stage, rethrowing the exception that failed it.
+   */
+  private static <T> T await(final CompletableFuture<T> stage) throws Exception {
+    try {
+      return stage.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Starts this protocol.
+   */
+  @Override
+  public void start() throws Exception {
+    super.start();
+    leaving = false;
+    if (stateChangeListener != null) {
+      stateChangeListener.start();
+    }
+    if (interruptionNoticeWatcher != null) {
+      interruptionNoticeWatcher.start(interruption_notice_interval);
+    }
+  }
+
+  /**
+   * Stops the listeners started by start.  The channel may reconnect, so the
+   * clients are kept until destroy.
    */
   @Override
   public void stop() {
     try {
-      if (ec2 != null) {
-        ec2.shutdown();
+      if (stateChangeListener != null) {
+        stateChangeListener.stop();
+      }
+      if (interruptionNoticeWatcher != null) {
+        interruptionNoticeWatcher.stop();
       }
     } finally {
       super.stop();
     }
   }
 
+  /**
+   * Releases the clients and threads created by init.
+   */
+  @Override
+  public void destroy() {
+    try {
+      if (stateChangeListener != null) {
+        stateChangeListener.close();
+      }
+      Util.close(metadataClient);
+      if (lookupExecutor != null) {
+        lookupExecutor.shutdownNow();
+      }
+      if (ec2 != null) {
+        EC2Factory.release(ec2);
+        ec2 = null;
+      }
+      releaseRegionalClients();
+      releaseTagIndexes();
+      releaseHostSnapshot();
+      if (credentialsProvider != null) {
+        EC2Factory.releaseCredentialsProvider(credentialsProvider);
+        credentialsProvider = null;
+      }
+    } finally {
+      super.destroy();
+    }
+  }
+
+  /**
+   * Watches for view changes that remove members, so they can be refreshed.
+   */
+  @Override
+  public Object down(final Event evt) {
+    if (evt.getType() == Event.VIEW_CHANGE && refresh_on_view_change) {
+      final View oldView = view;
+      final View newView = evt.getArg();
+      // resolve the physical addresses before the view is installed, the transport may forget them afterwards.
+      final List<String> departed = oldView == null || !newView.containsMember(local_addr) ?
+          Collections.emptyList() :
+          getPrivateIpAddresses(oldView.getMembers().stream().filter(member -> !newView.containsMember(member)));
+      final Object result = super.down(evt);
+      if (!departed.isEmpty()) {
+        log.debug("%s: members at [%s] left the view", local_addr, departed);
+        refreshMembers(departed);
+      }
+      return result;
+    }
+    return super.down(evt);
+  }
+
+  /**
+   * Stops answering discovery requests once this node is leaving, so it is not
+   * picked as a coordinator or merge target.  Responses to its own requests are
+   * still received.
+   */
+  @Override
+  public Object up(final Message msg) {
+    if (leaving) {
+      final PingHeader hdr = msg.getHeader(this.id);
+      if (hdr != null && hdr.type() == PingHeader.GET_MBRS_REQ) {
+        return null;
+      }
+    }
+    return super.up(msg);
+  }
+
+  /**
+   * Watches for suspected members, when failure detection is below this protocol.
+   */
+  @Override
+  public Object up(final Event evt) {
+    if (evt.getType() == Event.SUSPECT && refresh_on_view_change) {
+      final Object arg = evt.getArg();
+      final Stream<Address> suspects = arg instanceof Collection ?
+          ((Collection<?>) arg).stream().filter(Address.class::isInstance).map(Address.class::cast) :
+          arg instanceof Address ? Stream.of((Address) arg) : Stream.empty();
+      final List<String> suspected = getPrivateIpAddresses(suspects);
+      if (!suspected.isEmpty()) {
+        log.debug("%s: members at [%s] are suspected", local_addr, suspected);
+        refreshMembers(suspected);
+      }
+    }
+    return super.up(evt);
+  }
+
   /**
    * Returns true.
    *
@@ -229,18 +1265,75 @@ public class AWS_PING extends Discovery {
    */
   @Override
   protected void findMembers(final List<Address> members, boolean initial_discovery, final Responses responses) {
+    if (leaving) {
+      return;
+    }
+    if (initial_discovery && firstRoundDeadline != 0) {
+      awaitFirstRound();
+      firstRoundDeadline = 0;
+    }
+    final DiscoveryRoundEvent event = FlightRecorderEvents.beginDiscoveryRound();
+    final List<String> privateIpAddresses = getCachedPrivateIpAddresses();
+    final int messages = sendDiscoveryRequests(privateIpAddresses);
+    FlightRecorderEvents.commitDiscoveryRound(event, initial_discovery, privateIpAddresses.size(), messages);
+  }
+
+  /**
+   * Waits until the first discovery round of this instance may run.
+   *
+   * @return false if the wait was interrupted.
+   */
+  private boolean awaitFirstRound() {
+    final long deadline = firstRoundDeadline;
+    final long remaining = deadline - System.nanoTime();
+    if (deadline == 0 || remaining <= 0) {
+      return true;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(remaining);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Sends discovery requests to every port in the range on each of the private ip addresses.
+   *
+   * @param privateIpAddresses the private ip addresses to probe.
+   * @return the number of discovery requests sent.
+   */
+  private int sendDiscoveryRequests(final List<String> privateIpAddresses) {
+    if (local_addr == null || cluster_name == null) {
+      return 0; // not connected yet, the first findMembers will pick these up
+    }
+    final SendFanOutEvent event = FlightRecorderEvents.beginSendFanOut();
     final IpAddress physical_addr = (IpAddress) down(new Event(Event.GET_PHYSICAL_ADDRESS, local_addr));
+    final HostProbes probes = hostProbes;
+    final List<IpAddress> clusterMembers = probes != null ?
+        probes.expand(privateIpAddresses, physical_addr) :
+        ipAddressUtils.expandClusterMemberPorts(privateIpAddresses);
+    final int messages = probe(clusterMembers, physical_addr);
+    FlightRecorderEvents.commitSendFanOut(event, privateIpAddresses.size(), messages);
+    return messages;
+  }
+
+  /**
+   * Sends a discovery request to each of the addresses, except this node's.
+   *
+   * @return the number of requests sent.
+   */
+  private int probe(final List<IpAddress> clusterMembers, final IpAddress physical_addr) {
     final PingData data = new PingData(local_addr, false, NameCache.get(local_addr), physical_addr);
     final PingHeader hdr = new PingHeader(PingHeader.GET_MBRS_REQ).clusterName(cluster_name);
-    final List<IpAddress> clusterMembers = ipAddressUtils.expandClusterMemberPorts(getPrivateIpAddresses());
-
-    clusterMembers.stream()
+    return clusterMembers.stream()
         .filter(Objects::nonNull) //guard against nulls
         .filter(address -> address.compareTo(physical_addr) != 0) //filter out self
         .map(address -> new Message(address)
             .setFlag(Message.Flag.INTERNAL, Message.Flag.DONT_BUNDLE, Message.Flag.OOB)
             .putHeader(this.id, hdr).setBuffer(marshal(data)))
-        .forEach(message -> {
+        .mapToInt(message -> {
           if(async_discovery_use_separate_thread_per_request) {
             log.trace("%s: sending async discovery request to %s", local_addr, message.getDest());
             down_prot.down(message);
@@ -248,7 +1341,131 @@ public class AWS_PING extends Discovery {
             log.trace("%s: sending discovery request to %s", local_addr, message.getDest());
             down_prot.down(message);
           }
-        });
+          return 1;
+        })
+        .sum();
+  }
+
+  /**
+   * Probes the next port of a host when a member answers from the highest port probed on it, when probe_strategy is
+   * incremental.
+   */
+  @Override
+  protected void handleDiscoveryResponse(final PingData data, final Address sender) {
+    super.handleDiscoveryResponse(data, sender);
+    final HostProbes probes = hostProbes;
+    if (probes == null || !(data.getPhysicalAddr() instanceof IpAddress) || local_addr == null || cluster_name == null) {
+      return;
+    }
+    final IpAddress next = probes.answered((IpAddress) data.getPhysicalAddr());
+    if (next != null) {
+      log.trace("%s: %s answered, probing %s", local_addr, data.getPhysicalAddr(), next);
+      probe(Collections.singletonList(next), (IpAddress) down(new Event(Event.GET_PHYSICAL_ADDRESS, local_addr)));
+    }
+  }
+
+  /**
+   * Leaves the cluster after a spot interruption notice, or a rebalance
+   * recommendation when leave_on_rebalance_recommendation is true.  Other
+   * rebalance recommendations are only logged.
+   *
+   * @param path the metadata path of the notice.
+   * @param notice the document of the notice.
+   */
+  private void interruptionNotice(final String path, final String notice) {
+    if (InterruptionNoticeWatcher.REBALANCE_RECOMMENDATION.equals(path) && !leave_on_rebalance_recommendation) {
+      log.warn("%s: received rebalance recommendation [%s]", local_addr, notice);
+      return;
+    }
+    leave(path + ": " + notice);
+  }
+
+  /**
+   * Leaves the cluster gracefully after an interruption notice, so the other
+   * members install a new view without waiting for failure detection.  The
+   * node answers discovery requests again when the channel reconnects.
+   *
+   * @param notice the notice that was received.
+   */
+  private void leave(final String notice) {
+    log.warn("%s: received interruption notice [%s], leaving the cluster", local_addr, notice);
+    leaving = true;
+    final JChannel channel = getProtocolStack() != null ? getProtocolStack().getChannel() : null;
+    if (channel == null) {
+      return;
+    }
+    final Thread disconnect = new Thread(channel::disconnect, "AWS_PING-leave");
+    disconnect.setDaemon(true);
+    disconnect.start();
+  }
+
+  /**
+   * Invalidates the cached members and runs a focused discovery round in the
+   * background, pinging the addresses that are new to the cluster along with
+   * the affected addresses that are still members.
+   *
+   * @param affected the private IP addresses of the members that left or were suspected.
+   */
+  private void refreshMembers(final List<String> affected) {
+    addressCache.invalidate();
+    final List<String> previous = addressCache.getAddresses();
+    // a lookup already in flight may have started before the change, so the focused round waits for a new one.
+    backgroundLookup.restart().whenComplete((current, error) -> {
+      if (error != null) {
+        log.warn("focused discovery round failed, the cached members will be refreshed by the next findMembers", error);
+        return;
+      }
+      final List<String> targets = current.stream()
+          .filter(address -> !previous.contains(address) || affected.contains(address))
+          .collect(Collectors.toList());
+      log.debug("%s: focused discovery round, pinging [%s]", local_addr, targets);
+      sendDiscoveryRequests(targets);
+    });
+  }
+
+  /**
+   * Resolves the private IP addresses of members through the transport.
+   */
+  private List<String> getPrivateIpAddresses(final Stream<Address> members) {
+    return members
+        .map(member -> down_prot.down(new Event(Event.GET_PHYSICAL_ADDRESS, member)))
+        .filter(IpAddress.class::isInstance)
+        .map(address -> ((IpAddress) address).getIpAddress().getHostAddress())
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Gets the private IP addresses of the cluster, using the cached addresses when
+   * they are kept up to date by instance state change events and have been
+   * reconciled recently, or were looked up within the adaptive lookup interval.
+   * Otherwise, waits up to lookup_timeout for a lookup.
+   *
+   * @return the list of private IP addresses of the cluster.
+   */
+  private List<String> getCachedPrivateIpAddresses() {
+    if (stateChangeListener != null && addressCache.isRefreshedWithin(reconciliation_interval)) {
+      return addressCache.getAddresses();
+    }
+    final AdaptiveLookupInterval interval = lookupInterval;
+    if (interval != null && addressCache.isRefreshedWithin(interval.getInterval())) {
+      return addressCache.getAddresses();
+    }
+    return backgroundLookup.get(lookup_timeout);
+  }
+
+  /**
+   * Runs a full lookup, or reads the members another JVM on the host looked up, recording how much the members
+   * changed when the lookup interval is adaptive.
+   */
+  private List<String> lookUpMembers() {
+    final HostSnapshot snapshot = hostSnapshot;
+    final List<String> result = snapshot != null ? snapshot.get(this::getPrivateIpAddresses) : getPrivateIpAddresses();
+    final AdaptiveLookupInterval interval = lookupInterval;
+    if (interval != null) {
+      interval.record(result);
+    }
+    return result;
   }
 
   /**
@@ -258,26 +1475,24 @@ public class AWS_PING extends Discovery {
    * @return the list of private IP addresses found on AWS.
    */
   private List<String> getPrivateIpAddresses() {
-    // if there are aws tags configured, then look them up and create filters.
-    final List<Filter> filters = filterUtils.instanceTagNamesToFilters();
-
-    // if there are aws filters defined, add them to the list.
-    filterUtils.getAwsFilters().ifPresent(filters::addAll);
+    if (networkInterfacesUtils != null) {
+      final List<String> result = networkInterfacesUtils.getPrivateIpAddresses(
+          filterUtils.getAwsFilters().orElse(Collections.emptyList()));
+      if (log.isDebugEnabled()) {
+        log.debug("Network interface addresses found [%s]", result);
+      }
+      return result;
+    }
 
-    final DescribeInstancesRequest request = new DescribeInstancesRequest().withFilters(filters);
+    final List<Filter> filters = getInstanceFilters();
 
     if (log.isDebugEnabled()) {
       log.debug("Describing AWS instances with the following filters [%s]", filters);
-      log.debug("Making AWS Request {%s}", request);
     }
 
-    // NOTE: the reservations group nodes together by when they were started. We
-    // need to dig through all of the reservations.
-    final List<String> result = ec2.describeInstances(request).getReservations().stream()
-        .flatMap(reservation -> reservation.getInstances().stream())
-        .map(Instance::getPrivateIpAddress)
-        .filter(Objects::nonNull)
-        .collect(Collectors.toList());
+    final List<String> result = multiRegionLookup != null ?
+        multiRegionLookup.getPrivateIpAddresses(filters, addressCache::add) :
+        instancesUtils.getPrivateIpAddresses(filters, addressCache::add);
 
     if (log.isDebugEnabled()) {
       log.debug("Instances found [%s]", result);
@@ -285,4 +1500,49 @@ public class AWS_PING extends Discovery {
 
     return result;
   }
+
+  /**
+   * Gets the private IP addresses of the given instances that are members of
+   * the cluster.
+   *
+   * @param instanceIds the ids of the instances.
+   * @return the private IP addresses of the matching instances.
+   */
+  private List<String> getClusterPrivateIpAddresses(final Collection<String> instanceIds) {
+    if (networkInterfacesUtils != null) {
+      final List<Filter> filters = new ArrayList<>(filterUtils.getAwsFilters().orElse(Collections.emptyList()));
+      filters.add(new Filter("attachment.instance-id", new ArrayList<>(instanceIds)));
+      return networkInterfacesUtils.getPrivateIpAddresses(filters);
+    }
+    return instancesUtils.getPrivateIpAddresses(instanceIds, getInstanceFilters());
+  }
+
+  /**
+   * Gets the private IP addresses of the given instances, whether or not they
+   * are members of the cluster.
+   *
+   * @param instanceIds the ids of the instances.
+   * @return the private IP addresses of the instances.
+   */
+  private List<String> getInstancePrivateIpAddresses(final Collection<String> instanceIds) {
+    return instancesUtils.getPrivateIpAddresses(instanceIds, Collections.emptyList());
+  }
+
+  /**
+   * @return the filters for the tags and the configured filters, limited to running instances.
+   */
+  private List<Filter> getInstanceFilters() {
+    // if there are aws tags configured, then look them up and create filters.
+    final List<Filter> filters = filterUtils.instanceTagNamesToFilters();
+
+    // if there are aws filters defined, add them to the list.
+    filterUtils.getAwsFilters().ifPresent(filters::addAll);
+
+    // only running instances can answer, unless the filters ask for other states.
+    if (filters.stream().noneMatch(filter -> INSTANCE_STATE_FILTER.equals(filter.getName()))) {
+      filters.add(new Filter(INSTANCE_STATE_FILTER, Collections.singletonList("running")));
+    }
+
+    return filters;
+  }
 }
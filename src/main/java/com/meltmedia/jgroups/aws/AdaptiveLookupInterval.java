@@ -0,0 +1,101 @@
+package com.meltmedia.jgroups.aws;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks how much the addresses found by full lookups change, and derives how long the cached addresses may be used
+ * before the next lookup.  The interval starts at its minimum, doubles after each lookup that finds the same addresses
+ * as the one before, up to its maximum, and drops back to its minimum as soon as a lookup finds a change.
+ *
+ * The churn rate is the number of addresses added or removed per minute, averaged over the last few minutes.
+ */
+public class AdaptiveLookupInterval {
+  private static final long CHURN_WINDOW = TimeUnit.MINUTES.toNanos(5);
+
+  private final long minInterval;
+  private final long maxInterval;
+  private Set<String> lastAddresses;
+  private long lastLookupAt;
+  private long interval;
+  private double churnRate = 0;
+  private long changes = 0;
+
+  /**
+   * @param minInterval the interval after a change, in milliseconds.
+   * @param maxInterval the interval after a long stable period, in milliseconds.
+   * @throws IllegalArgumentException if the minimum is not positive or the maximum is below it.
+   */
+  public AdaptiveLookupInterval(final long minInterval, final long maxInterval) {
+    if (minInterval <= 0) {
+      throw new IllegalArgumentException("lookup_interval_min must be positive");
+    }
+    if (maxInterval < minInterval) {
+      throw new IllegalArgumentException("lookup_interval_max cannot be less than lookup_interval_min");
+    }
+    this.minInterval = minInterval;
+    this.maxInterval = maxInterval;
+    this.interval = minInterval;
+  }
+
+  /**
+   * Records the result of a full lookup and adapts the interval.
+   *
+   * @param addresses the addresses found.
+   */
+  public void record(final Collection<String> addresses) {
+    record(addresses, System.nanoTime());
+  }
+
+  synchronized void record(final Collection<String> addresses, final long now) {
+    final Set<String> current = new HashSet<>(addresses);
+    if (lastAddresses == null) {
+      lastAddresses = current;
+      lastLookupAt = now;
+      return;
+    }
+
+    int changed = 0;
+    for (final String address : current) {
+      if (!lastAddresses.contains(address)) {
+        changed++;
+      }
+    }
+    for (final String address : lastAddresses) {
+      if (!current.contains(address)) {
+        changed++;
+      }
+    }
+
+    final long elapsed = Math.max(now - lastLookupAt, 1);
+    final double rate = changed * (double) TimeUnit.MINUTES.toNanos(1) / elapsed;
+    churnRate += (1 - Math.exp(-(double) elapsed / CHURN_WINDOW)) * (rate - churnRate);
+    changes += changed;
+    interval = changed > 0 ? minInterval : Math.min(interval * 2, maxInterval);
+    lastAddresses = current;
+    lastLookupAt = now;
+  }
+
+  /**
+   * @return the number of milliseconds the cached addresses may be used before the next lookup.
+   */
+  public synchronized long getInterval() {
+    return interval;
+  }
+
+  /**
+   * @return the number of addresses added or removed per minute, averaged over the last few minutes.
+   */
+  public synchronized double getChurnRate() {
+    return churnRate;
+  }
+
+  /**
+   * @return the number of addresses added or removed between lookups since the first one.
+   */
+  public synchronized long getChanges() {
+    return changes;
+  }
+}
@@ -0,0 +1,76 @@
+package com.meltmedia.jgroups.aws;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the private ip addresses found by the last EC2 lookup, along with any incremental updates made since then.
+ */
+public class AddressCache {
+  private final Set<String> addresses = new LinkedHashSet<>();
+  private long refreshedAt;
+  private boolean refreshed = false;
+
+  /**
+   * Replaces the cached addresses with the result of a full lookup.
+   *
+   * @param lookedUp the addresses found by the lookup.
+   */
+  public synchronized void refresh(final Collection<String> lookedUp) {
+    addresses.clear();
+    addresses.addAll(lookedUp);
+    refreshedAt = System.nanoTime();
+    refreshed = true;
+  }
+
+  /**
+   * Adds addresses to the cache, without changing when it was refreshed.
+   *
+   * @param added the addresses to add.
+   * @return the addresses that were not already cached.
+   */
+  public synchronized List<String> add(final Collection<String> added) {
+    final List<String> result = new ArrayList<>();
+    for (final String address : added) {
+      if (addresses.add(address)) {
+        result.add(address);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Removes addresses from the cache, without changing when it was refreshed.
+   *
+   * @param removed the addresses to remove.
+   */
+  public synchronized void remove(final Collection<String> removed) {
+    addresses.removeAll(removed);
+  }
+
+  /**
+   * Marks the cache as needing a refresh, keeping the cached addresses.
+   */
+  public synchronized void invalidate() {
+    refreshed = false;
+  }
+
+  /**
+   * @param millis the maximum age of the cache.
+   * @return true if the cache was refreshed within the given number of milliseconds.
+   */
+  public synchronized boolean isRefreshedWithin(final long millis) {
+    return refreshed && System.nanoTime() - refreshedAt < TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * @return a copy of the cached addresses.
+   */
+  public synchronized List<String> getAddresses() {
+    return new ArrayList<>(addresses);
+  }
+}
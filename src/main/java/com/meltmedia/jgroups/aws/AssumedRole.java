@@ -0,0 +1,57 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+
+/**
+ * The credentials of a role assumed in another account, along with the STS client that refreshes them.  STS is only
+ * referenced from here, so AWS_PING loads without aws-java-sdk-sts when no role is assumed.
+ */
+public class AssumedRole {
+  private final AWSSecurityTokenService sts;
+  private final STSAssumeRoleSessionCredentialsProvider credentialsProvider;
+
+  /**
+   * @param credentials the credentials used to assume the role.
+   * @param configuration the configuration of the STS client.
+   * @param region the region of the STS endpoint.
+   * @param roleArn the ARN of the role to assume.
+   * @param sessionName the name of the role session.
+   */
+  public AssumedRole(
+      final AWSCredentialsProvider credentials,
+      final ClientConfiguration configuration,
+      final String region,
+      final String roleArn,
+      final String sessionName) {
+    this.sts = AWSSecurityTokenServiceClientBuilder.standard()
+        .withCredentials(credentials)
+        .withClientConfiguration(configuration)
+        .withRegion(region)
+        .build();
+    this.credentialsProvider = new STSAssumeRoleSessionCredentialsProvider.Builder(roleArn, sessionName)
+        .withStsClient(sts)
+        .build();
+  }
+
+  /**
+   * @return the credentials of the role.
+   */
+  public AWSCredentialsProvider getCredentialsProvider() {
+    return credentialsProvider;
+  }
+
+  /**
+   * Closes the credentials provider, which stops its refreshes, and shuts the STS client down.
+   */
+  public void close() {
+    try {
+      credentialsProvider.close();
+    } finally {
+      sts.shutdown();
+    }
+  }
+}
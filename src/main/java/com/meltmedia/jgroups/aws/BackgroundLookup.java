@@ -0,0 +1,159 @@
+package com.meltmedia.jgroups.aws;
+
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Runs member lookups in the background, so a discovery round can be bounded by a time budget.  At most one lookup
+ * is in flight at a time and its result refreshes the address cache.  When the budget runs out, the cached addresses,
+ * including any pages the lookup has already added, are used and the lookup keeps running.
+ */
+public class BackgroundLookup {
+  private static Log log = LogFactory.getLog(AWS_PING.class);
+
+  private final Supplier<List<String>> lookup;
+  private final AddressCache addressCache;
+  private final Executor executor;
+  private final Consumer<List<String>> lateAddresses;
+  private Lookup inFlight;
+
+  /**
+   * @param lookup the full lookup, which may add partial results to the address cache as it goes.
+   * @param addressCache the cache refreshed by the lookup.
+   * @param executor runs the lookups.
+   * @param lateAddresses receives the addresses that a lookup finds after the budget of a round ran out.
+   */
+  public BackgroundLookup(
+      final Supplier<List<String>> lookup,
+      final AddressCache addressCache,
+      final Executor executor,
+      final Consumer<List<String>> lateAddresses) {
+    this.lookup = lookup;
+    this.addressCache = addressCache;
+    this.executor = executor;
+    this.lateAddresses = lateAddresses;
+  }
+
+  /**
+   * Starts a lookup, unless one is already in flight.
+   *
+   * @return the lookup in flight.
+   */
+  public synchronized CompletableFuture<List<String>> start() {
+    if (inFlight == null || inFlight.future.isDone()) {
+      inFlight = new Lookup(CompletableFuture.completedFuture(null));
+    }
+    return inFlight.future;
+  }
+
+  /**
+   * Starts a lookup that begins after this call, so its result reflects changes made before it.  When a lookup is
+   * already in flight, the new one runs after it.
+   *
+   * @return the new lookup.
+   */
+  public synchronized CompletableFuture<List<String>> restart() {
+    if (inFlight == null || inFlight.future.isDone()) {
+      inFlight = new Lookup(CompletableFuture.completedFuture(null));
+    } else if (inFlight.started) {
+      inFlight = new Lookup(inFlight.future.handle((result, error) -> null));
+    }
+    return inFlight.future;
+  }
+
+  /**
+   * Waits for a lookup, up to a time budget.  When the budget runs out, the addresses the lookup finds later are
+   * passed to the late address consumer once it completes.
+   *
+   * @param timeout the budget in milliseconds, 0 waits until the lookup completes.
+   * @return the addresses found by the lookup, or the cached addresses if the lookup did not complete in time or failed.
+   */
+  public List<String> get(final long timeout) {
+    final Lookup current;
+    synchronized (this) {
+      start();
+      current = inFlight;
+    }
+    try {
+      return timeout > 0 ? current.future.get(timeout, TimeUnit.MILLISECONDS) : current.future.get();
+    } catch (TimeoutException e) {
+      final List<String> partial = addressCache.getAddresses();
+      log.warn("member lookup did not complete within %d ms, using %d cached addresses", timeout, partial.size());
+      current.ranOutOfBudget(partial);
+      return partial;
+    } catch (ExecutionException e) {
+      log.warn("member lookup failed, using cached addresses", e.getCause());
+      return addressCache.getAddresses();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return addressCache.getAddresses();
+    }
+  }
+
+  /**
+   * One lookup, and the addresses the rounds that ran out of budget waiting for it used instead.
+   */
+  private class Lookup {
+    private final CompletableFuture<List<String>> future;
+    private volatile boolean started = false;
+    private Set<String> used;
+    private List<String> result;
+
+    private Lookup(final CompletableFuture<?> after) {
+      this.future = after.thenApplyAsync(ignored -> {
+        started = true;
+        final List<String> found = lookup.get();
+        addressCache.refresh(found);
+        return found;
+      }, executor);
+      future.thenAccept(this::completed);
+    }
+
+    private void ranOutOfBudget(final List<String> partial) {
+      final List<String> late;
+      synchronized (this) {
+        if (used == null) {
+          used = new HashSet<>();
+        }
+        used.addAll(partial);
+        late = result == null ? null : late();
+      }
+      deliver(late);
+    }
+
+    private void completed(final List<String> found) {
+      final List<String> late;
+      synchronized (this) {
+        result = found;
+        late = used == null ? null : late();
+      }
+      deliver(late);
+    }
+
+    private List<String> late() {
+      final List<String> late = result.stream()
+          .filter(address -> !used.contains(address))
+          .collect(Collectors.toList());
+      used.addAll(late);
+      return late;
+    }
+
+    private void deliver(final List<String> late) {
+      if (late != null && !late.isEmpty()) {
+        lateAddresses.accept(late);
+      }
+    }
+  }
+}
@@ -1,11 +1,34 @@
 package com.meltmedia.jgroups.aws;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.auth.EnvironmentVariableCredentialsProvider;
+import com.amazonaws.auth.InstanceProfileCredentialsProvider;
+import com.amazonaws.auth.SystemPropertiesCredentialsProvider;
+import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
 import org.jgroups.util.Util;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Creates credentials providers by class name.  The providers that ship with the SDK, and any registered with
+ * register, are created directly; other classes are loaded and instantiated reflectively.
+ */
 public class CredentialsProviderFactory {
+  private static final Map<String, Supplier<AWSCredentialsProvider>> knownProviders = new ConcurrentHashMap<>();
+
+  static {
+    register(DefaultAWSCredentialsProviderChain.class.getName(), DefaultAWSCredentialsProviderChain::new);
+    register(EnvironmentVariableCredentialsProvider.class.getName(), EnvironmentVariableCredentialsProvider::new);
+    register(SystemPropertiesCredentialsProvider.class.getName(), SystemPropertiesCredentialsProvider::new);
+    register(InstanceProfileCredentialsProvider.class.getName(), InstanceProfileCredentialsProvider::getInstance);
+    register(ProfileCredentialsProvider.class.getName(), ProfileCredentialsProvider::new);
+  }
+
   private final Log log;
 
   public CredentialsProviderFactory() {
@@ -17,7 +40,18 @@ public class CredentialsProviderFactory {
   }
 
   /**
-   * Loads a new instance of the credential provider, using the same class loading rules from org.jgroups.Util.loadClass(String, Class).
+   * Registers a credentials provider that is created without reflection when its class name is configured.
+   *
+   * @param credentialProviderClass the class name that credentials_provider_class will be set to.
+   * @param supplier creates a new instance of the provider.
+   */
+  public static void register(final String credentialProviderClass, final Supplier<AWSCredentialsProvider> supplier) {
+    knownProviders.put(credentialProviderClass, supplier);
+  }
+
+  /**
+   * Creates a new instance of the credential provider.  Known providers are created directly, others are loaded using
+   * the same class loading rules from org.jgroups.Util.loadClass(String, Class).
    * 
    * @param credentialProviderClass the class name of the AWSCredentialsProvider to load.
    * @return an instance of the credential provider
@@ -25,6 +59,10 @@ public class CredentialsProviderFactory {
    * @throws InstantiationException if the implementation does not have a no argument constructor.
    */
   public AWSCredentialsProvider createCredentialsProvider(final String credentialProviderClass) throws Exception {
+    final Supplier<AWSCredentialsProvider> known = knownProviders.get(credentialProviderClass);
+    if (known != null) {
+      return known.get();
+    }
     try {
       final Class<?> credsProviderClazz = Util.loadClass(credentialProviderClass, getClass());
       return (AWSCredentialsProvider) credsProviderClazz.newInstance();
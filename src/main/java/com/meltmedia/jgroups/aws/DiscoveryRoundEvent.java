@@ -0,0 +1,26 @@
+package com.meltmedia.jgroups.aws;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A discovery round, from findMembers being called until the discovery requests are sent.
+ */
+@Name("com.meltmedia.jgroups.aws.DiscoveryRound")
+@Label("Discovery Round")
+@Category({"JGroups", "AWS_PING"})
+@Description("A discovery round of AWS_PING, including the member lookup and the discovery requests")
+final class DiscoveryRoundEvent extends jdk.jfr.Event {
+  @Label("Initial Discovery")
+  boolean initialDiscovery;
+
+  @Label("Addresses")
+  @Description("The number of private ip addresses probed")
+  int addresses;
+
+  @Label("Messages")
+  @Description("The number of discovery requests sent")
+  int messages;
+}
@@ -0,0 +1,138 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.ClientConfiguration;
+
+import java.util.Objects;
+
+/**
+ * The HTTP settings of an EC2 client: timeouts, connection pooling, keep-alive, compression and retries.  Profiles
+ * are values, so clients are only shared between users with equal profiles.
+ */
+public class EC2ClientProfile {
+  /**
+   * The SDK's own defaults.
+   */
+  public static final EC2ClientProfile DEFAULT = new EC2ClientProfile(10000, 50000, 0, -1, false, 50, false, -1);
+
+  public final int connectionTimeout;
+  public final int socketTimeout;
+  public final int requestTimeout;
+  public final long connectionTtl;
+  public final boolean tcpKeepAlive;
+  public final int maxConnections;
+  public final boolean useGzip;
+  public final int maxErrorRetry;
+
+  /**
+   * @param connectionTimeout the milliseconds to wait for a connection to be established, 0 waits forever.
+   * @param socketTimeout the milliseconds to wait for data on an open connection, 0 waits forever.
+   * @param requestTimeout the milliseconds a whole request may take, 0 disables the timeout.
+   * @param connectionTtl the milliseconds a pooled connection is kept before it is closed, -1 keeps it forever.
+   * @param tcpKeepAlive true to send TCP keep-alive probes on idle connections.
+   * @param maxConnections the maximum number of open connections.
+   * @param useGzip true to ask for gzip compressed responses.
+   * @param maxErrorRetry the number of retries for failed requests, -1 uses the SDK's retry policy.
+   * @throws IllegalArgumentException if a value is out of range.
+   */
+  public EC2ClientProfile(
+      final int connectionTimeout,
+      final int socketTimeout,
+      final int requestTimeout,
+      final long connectionTtl,
+      final boolean tcpKeepAlive,
+      final int maxConnections,
+      final boolean useGzip,
+      final int maxErrorRetry) {
+    if (connectionTimeout < 0) {
+      throw new IllegalArgumentException("ec2_connection_timeout cannot be negative");
+    }
+    if (socketTimeout < 0) {
+      throw new IllegalArgumentException("ec2_socket_timeout cannot be negative");
+    }
+    if (requestTimeout < 0) {
+      throw new IllegalArgumentException("ec2_request_timeout cannot be negative");
+    }
+    if (connectionTtl < -1) {
+      throw new IllegalArgumentException("ec2_connection_ttl must be -1 or greater");
+    }
+    if (maxConnections <= 0) {
+      throw new IllegalArgumentException("ec2_max_connections must be positive");
+    }
+    if (maxErrorRetry < -1) {
+      throw new IllegalArgumentException("ec2_max_error_retry must be -1 or greater");
+    }
+    this.connectionTimeout = connectionTimeout;
+    this.socketTimeout = socketTimeout;
+    this.requestTimeout = requestTimeout;
+    this.connectionTtl = connectionTtl;
+    this.tcpKeepAlive = tcpKeepAlive;
+    this.maxConnections = maxConnections;
+    this.useGzip = useGzip;
+    this.maxErrorRetry = maxErrorRetry;
+  }
+
+  /**
+   * Creates the client configuration for this profile.
+   */
+  public ClientConfiguration toClientConfiguration() {
+    final ClientConfiguration configuration = new ClientConfiguration()
+        .withConnectionTimeout(connectionTimeout)
+        .withSocketTimeout(socketTimeout)
+        .withRequestTimeout(requestTimeout)
+        .withConnectionTTL(connectionTtl)
+        .withTcpKeepAlive(tcpKeepAlive)
+        .withMaxConnections(maxConnections)
+        .withGzip(useGzip);
+    if (maxErrorRetry >= 0) {
+      configuration.setMaxErrorRetry(maxErrorRetry);
+    }
+    return configuration;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof EC2ClientProfile)) {
+      return false;
+    }
+    final EC2ClientProfile other = (EC2ClientProfile) o;
+    return connectionTimeout == other.connectionTimeout
+        && socketTimeout == other.socketTimeout
+        && requestTimeout == other.requestTimeout
+        && connectionTtl == other.connectionTtl
+        && tcpKeepAlive == other.tcpKeepAlive
+        && maxConnections == other.maxConnections
+        && useGzip == other.useGzip
+        && maxErrorRetry == other.maxErrorRetry;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(
+        connectionTimeout,
+        socketTimeout,
+        requestTimeout,
+        connectionTtl,
+        tcpKeepAlive,
+        maxConnections,
+        useGzip,
+        maxErrorRetry);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "connectionTimeout=%d socketTimeout=%d requestTimeout=%d connectionTtl=%d tcpKeepAlive=%b maxConnections=%d "
+            + "useGzip=%b maxErrorRetry=%d",
+        connectionTimeout,
+        socketTimeout,
+        requestTimeout,
+        connectionTtl,
+        tcpKeepAlive,
+        maxConnections,
+        useGzip,
+        maxErrorRetry);
+  }
+}
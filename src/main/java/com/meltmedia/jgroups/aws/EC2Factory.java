@@ -1,89 +1,231 @@
 package com.meltmedia.jgroups.aws;
 
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.handlers.RequestHandler;
 import com.amazonaws.internal.StaticCredentialsProvider;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
-import com.amazonaws.transform.Unmarshaller;
-import org.w3c.dom.Node;
 
-import java.lang.reflect.Field;
-import java.util.List;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 
 /**
- * A factory for AmazonEC2 instances.
+ * A factory for AmazonEC2 instances.  Clients can either be created for a single user, or acquired from a JVM wide
+ * registry that shares one client, with its connection pool, credentials provider and threads, between all the users
+ * with the same region, credentials configuration and client profile.
  */
 @SuppressWarnings("deprecation")
 public class EC2Factory {
   private static String EC2_ENDPOINT_TEMPLATE = "ec2.{REGION}.amazonaws.com";
 
-  public static AmazonEC2 create(
-      final InstanceIdentity instanceIdentity,
+  private static final boolean SQS_AVAILABLE = isAvailable("com.amazonaws.services.sqs.AmazonSQS");
+
+  private static final boolean STS_AVAILABLE = isAvailable("com.amazonaws.services.securitytoken.AWSSecurityTokenService");
+
+  private static final Map<ClientKey, SharedClient> sharedClients = new HashMap<>();
+  private static final Map<AmazonEC2, SharedClient> sharedClientsByClient = new IdentityHashMap<>();
+
+  /**
+   * Acquires the shared client for the region, credentials configuration and client profile, creating it with an
+   * already resolved credentials provider if needed.  Every call must be matched with a call to release.
+   */
+  public static AmazonEC2 acquire(
+      final String region,
       final String accessKey,
       final String secretKey,
       final String credentialsProviderClass,
-      final CredentialsProviderFactory credentialsProviderFactory,
-      final Boolean logAwsErrorMessages) throws Exception {
-
-    final AmazonEC2 ec2 = setupEC2Client(
-        instanceIdentity.region,
+      final AWSCredentialsProvider credentialsProvider,
+      final Boolean logAwsErrorMessages,
+      final EC2ClientProfile profile) {
+    final ClientKey key = new ClientKey(
+        region,
         accessKey,
         secretKey,
         credentialsProviderClass,
-        credentialsProviderFactory);
+        logAwsErrorMessages,
+        profile);
+    synchronized (sharedClients) {
+      SharedClient shared = sharedClients.get(key);
+      if (shared == null) {
+        shared = new SharedClient(key, create(region, credentialsProvider, logAwsErrorMessages, profile));
+        sharedClients.put(key, shared);
+        sharedClientsByClient.put(shared.ec2, shared);
+      }
+      shared.references++;
+      return shared.ec2;
+    }
+  }
 
-    //Lets do some good old reflection work to add a unmarshaller to the AmazonEC2Client just to log the exceptions from soap.
-    if (logAwsErrorMessages) {
-      setupAWSExceptionLogging(ec2);
+  /**
+   * Releases a client.  Shared clients are shut down when their last user releases them, other clients are shut
+   * down right away.
+   */
+  public static void release(final AmazonEC2 ec2) {
+    synchronized (sharedClients) {
+      final SharedClient shared = sharedClientsByClient.get(ec2);
+      if (shared != null) {
+        if (--shared.references > 0) {
+          return;
+        }
+        sharedClients.remove(shared.key);
+        sharedClientsByClient.remove(ec2);
+      }
+    }
+    ec2.shutdown();
+  }
+
+  /**
+   * Creates a client for a region with an already resolved credentials provider and the HTTP settings of a profile.
+   */
+  public static AmazonEC2 create(
+      final String region,
+      final AWSCredentialsProvider credentialsProvider,
+      final Boolean logAwsErrorMessages,
+      final EC2ClientProfile profile) {
+    final AmazonEC2Client ec2 = setupEC2Client(region, credentialsProvider, profile);
+    if (Boolean.TRUE.equals(logAwsErrorMessages)) {
+      ec2.addRequestHandler(new AWSFaultLogger());
     }
     return ec2;
   }
 
-  private static AmazonEC2 setupEC2Client(
+  /**
+   * @return true if the SQS client, needed by state_change_queue_url, is on the classpath.
+   */
+  static boolean isSqsAvailable() {
+    return SQS_AVAILABLE;
+  }
+
+  /**
+   * @return true if the STS client, needed to assume roles in other regions, is on the classpath.
+   */
+  static boolean isStsAvailable() {
+    return STS_AVAILABLE;
+  }
+
+  private static AmazonEC2Client setupEC2Client(
       final String region,
+      final AWSCredentialsProvider credentialsProvider,
+      final EC2ClientProfile profile) {
+
+    final String endpoint = EC2_ENDPOINT_TEMPLATE.replace("{REGION}", region);
+    final AmazonEC2Client ec2 = new AmazonEC2Client(credentialsProvider, profile.toClientConfiguration());
+    ec2.setEndpoint(endpoint);
+    return ec2;
+  }
+
+  /**
+   * Creates the credentials provider for the configured keys, falling back to the configured provider class when
+   * no keys are given.
+   */
+  public static AWSCredentialsProvider createCredentialsProvider(
       final String accessKey,
       final String secretKey,
       final String credentialsProviderClass,
       final CredentialsProviderFactory credentialsProviderFactory) throws Exception {
-
-    final String endpoint = EC2_ENDPOINT_TEMPLATE.replace("{REGION}", region);
-    final AWSCredentialsProvider credentialsProvider = accessKey == null && secretKey == null ?
+    return accessKey == null && secretKey == null ?
         credentialsProviderFactory.createCredentialsProvider(credentialsProviderClass) :
         new StaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey));
+  }
 
-    final AmazonEC2 ec2 = new AmazonEC2Client(credentialsProvider);
-    ec2.setEndpoint(endpoint);
-    return ec2;
+  /**
+   * Acquires the credentials provider for the configured keys, or the shared provider caching the credentials of the
+   * configured provider class and refreshing them in the background.  A refreshInterval of 0 creates the provider
+   * class without caching.  Every call must be matched with a call to releaseCredentialsProvider.
+   */
+  public static AWSCredentialsProvider acquireCredentialsProvider(
+      final String accessKey,
+      final String secretKey,
+      final String credentialsProviderClass,
+      final CredentialsProviderFactory credentialsProviderFactory,
+      final long refreshInterval) throws Exception {
+    if (accessKey != null || secretKey != null || refreshInterval == 0) {
+      return createCredentialsProvider(accessKey, secretKey, credentialsProviderClass, credentialsProviderFactory);
+    }
+    return RefreshingCredentialsProvider.acquire(
+        credentialsProviderClass,
+        refreshInterval,
+        () -> credentialsProviderFactory.createCredentialsProvider(credentialsProviderClass));
   }
 
   /**
-   * Sets up the AmazonEC2Client to log soap faults from the AWS EC2 api server.
+   * Releases a credentials provider acquired with acquireCredentialsProvider.
    */
-  private static void setupAWSExceptionLogging(AmazonEC2 ec2) {
-    boolean accessible = false;
-    Field exceptionUnmarshallersField = null;
+  public static void releaseCredentialsProvider(final AWSCredentialsProvider credentialsProvider) {
+    RefreshingCredentialsProvider.release(credentialsProvider);
+  }
+
+  private static boolean isAvailable(final String... classNames) {
     try {
-      exceptionUnmarshallersField = AmazonEC2Client.class.getDeclaredField("exceptionUnmarshallers");
-      accessible = exceptionUnmarshallersField.isAccessible();
-      exceptionUnmarshallersField.setAccessible(true);
-      @SuppressWarnings("unchecked") final List<Unmarshaller<AmazonServiceException, Node>> exceptionUnmarshallers = (List<Unmarshaller<AmazonServiceException, Node>>) exceptionUnmarshallersField.get(ec2);
-      exceptionUnmarshallers.add(0, new AWSFaultLogger());
-      ((AmazonEC2Client) ec2).addRequestHandler((RequestHandler) exceptionUnmarshallers.get(0));
-    } catch (Throwable t) {
-      //I don't care about this.
-    } finally {
-      if (exceptionUnmarshallersField != null) {
-        try {
-          exceptionUnmarshallersField.setAccessible(accessible);
-        } catch (SecurityException se) {
-          //I don't care about this.
-        }
+      for (final String className : classNames) {
+        Class.forName(className, false, EC2Factory.class.getClassLoader());
       }
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
     }
   }
 
+  /**
+   * The configuration that a shared client is created from.
+   */
+  private static class ClientKey {
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+    private final String credentialsProviderClass;
+    private final boolean logAwsErrorMessages;
+    private final EC2ClientProfile profile;
+
+    private ClientKey(
+        final String region,
+        final String accessKey,
+        final String secretKey,
+        final String credentialsProviderClass,
+        final Boolean logAwsErrorMessages,
+        final EC2ClientProfile profile) {
+      this.region = region;
+      this.accessKey = accessKey;
+      this.secretKey = secretKey;
+      this.credentialsProviderClass = credentialsProviderClass;
+      this.logAwsErrorMessages = Boolean.TRUE.equals(logAwsErrorMessages);
+      this.profile = profile;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ClientKey)) {
+        return false;
+      }
+      final ClientKey other = (ClientKey) o;
+      return logAwsErrorMessages == other.logAwsErrorMessages
+          && Objects.equals(region, other.region)
+          && Objects.equals(accessKey, other.accessKey)
+          && Objects.equals(secretKey, other.secretKey)
+          && Objects.equals(credentialsProviderClass, other.credentialsProviderClass)
+          && Objects.equals(profile, other.profile);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(region, accessKey, secretKey, credentialsProviderClass, logAwsErrorMessages, profile);
+    }
+  }
+
+  private static class SharedClient {
+    private final ClientKey key;
+    private final AmazonEC2 ec2;
+    private int references = 0;
+
+    private SharedClient(final ClientKey key, final AmazonEC2 ec2) {
+      this.key = key;
+      this.ec2 = ec2;
+    }
+  }
 }
@@ -0,0 +1,32 @@
+package com.meltmedia.jgroups.aws;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A call to the EC2 API, including the request, the retries and the unmarshalling of the response.
+ */
+@Name("com.meltmedia.jgroups.aws.Ec2Call")
+@Label("EC2 Call")
+@Category({"JGroups", "AWS_PING"})
+@Description("A call to the EC2 API, including retries and unmarshalling")
+final class Ec2CallEvent extends jdk.jfr.Event {
+  @Label("Action")
+  String action;
+
+  @Label("Page")
+  @Description("The page of the response, starting at 1")
+  int page;
+
+  @Label("Results")
+  @Description("The number of items in the page")
+  int results;
+
+  @Label("Error Code")
+  String errorCode;
+
+  @Label("Status Code")
+  int statusCode;
+}
@@ -3,12 +3,11 @@ package com.meltmedia.jgroups.aws;
 import com.amazonaws.services.ec2.model.Filter;
 import org.jgroups.util.Tuple;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class FilterUtils {
   private final TagsUtils tagsUtils;
@@ -38,15 +37,8 @@ public class FilterUtils {
    * @return a list of filters for instances that share common tags with
    *   this instance.
    */
-  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
   public List<Filter> instanceTagNamesToFilters() {
-    return tagsUtils.getAwsTagNames().map(Stream::of).orElseGet(Stream::empty)
-        .map(tagNames -> new Tuple<>(tagNames, tagsUtils.getInstanceTags()))
-        .flatMap(namesAndTags -> namesAndTags.getVal2()
-            .stream()
-            .filter(tag -> namesAndTags.getVal1().contains(tag.getKey())))
-        .map(tag -> new Filter("tag:" + tag.getKey(), Collections.singletonList(tag.getValue())))
-        .collect(Collectors.toList());
+    return new ArrayList<>(tagsUtils.getInstanceTagFilters());
   }
 
   /**
@@ -0,0 +1,137 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.AmazonServiceException;
+import jdk.jfr.EventType;
+
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Emits the flight recorder events of AWS_PING.  The event classes are only touched when the flight recorder is
+ * available, so this also runs on JVMs without it.  The enabled checks go through event types looked up once, so a
+ * disabled event costs a branch and allocates nothing.  The begin methods return null when the event is not recorded,
+ * and the commit methods accept null.
+ */
+final class FlightRecorderEvents {
+  private static final boolean AVAILABLE = isAvailable();
+
+  private FlightRecorderEvents() {
+  }
+
+  static DiscoveryRoundEvent beginDiscoveryRound() {
+    if (!AVAILABLE || !EventTypes.DISCOVERY_ROUND.isEnabled()) {
+      return null;
+    }
+    final DiscoveryRoundEvent event = new DiscoveryRoundEvent();
+    event.begin();
+    return event;
+  }
+
+  static void commitDiscoveryRound(
+      final DiscoveryRoundEvent event,
+      final boolean initialDiscovery,
+      final int addresses,
+      final int messages) {
+    if (event != null) {
+      event.initialDiscovery = initialDiscovery;
+      event.addresses = addresses;
+      event.messages = messages;
+      event.commit();
+    }
+  }
+
+  static SendFanOutEvent beginSendFanOut() {
+    if (!AVAILABLE || !EventTypes.SEND_FAN_OUT.isEnabled()) {
+      return null;
+    }
+    final SendFanOutEvent event = new SendFanOutEvent();
+    event.begin();
+    return event;
+  }
+
+  static void commitSendFanOut(final SendFanOutEvent event, final int addresses, final int messages) {
+    if (event != null) {
+      event.addresses = addresses;
+      event.messages = messages;
+      event.commit();
+    }
+  }
+
+  static ImdsFetchEvent beginImdsFetch() {
+    if (!AVAILABLE || !EventTypes.IMDS_FETCH.isEnabled()) {
+      return null;
+    }
+    final ImdsFetchEvent event = new ImdsFetchEvent();
+    event.begin();
+    return event;
+  }
+
+  static void commitImdsFetch(final ImdsFetchEvent event, final String path, final int statusCode, final String error) {
+    if (event != null) {
+      event.path = path;
+      event.statusCode = statusCode;
+      event.error = error;
+      event.commit();
+    }
+  }
+
+  /**
+   * Makes a call to the EC2 API, recording it as an Ec2Call event.
+   *
+   * @param action the name of the action.
+   * @param page the page requested, starting at 1.
+   * @param call makes the call.
+   * @param results counts the items in the response.
+   * @return the response.
+   */
+  static <T> T ec2Call(final String action, final int page, final Supplier<T> call, final ToIntFunction<T> results) {
+    final Ec2CallEvent event = AVAILABLE ? beginEc2Call() : null;
+    if (event == null) {
+      return call.get();
+    }
+    event.action = action;
+    event.page = page;
+    try {
+      final T response = call.get();
+      event.results = results.applyAsInt(response);
+      return response;
+    } catch (AmazonServiceException e) {
+      event.errorCode = e.getErrorCode();
+      event.statusCode = e.getStatusCode();
+      throw e;
+    } catch (RuntimeException e) {
+      event.errorCode = e.getClass().getSimpleName();
+      throw e;
+    } finally {
+      event.commit();
+    }
+  }
+
+  private static Ec2CallEvent beginEc2Call() {
+    if (!EventTypes.EC2_CALL.isEnabled()) {
+      return null;
+    }
+    final Ec2CallEvent event = new Ec2CallEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * The types of the events, looked up once.  This class is only loaded when the flight recorder is available.
+   */
+  private static final class EventTypes {
+    static final EventType DISCOVERY_ROUND = EventType.getEventType(DiscoveryRoundEvent.class);
+    static final EventType EC2_CALL = EventType.getEventType(Ec2CallEvent.class);
+    static final EventType IMDS_FETCH = EventType.getEventType(ImdsFetchEvent.class);
+    static final EventType SEND_FAN_OUT = EventType.getEventType(SendFanOutEvent.class);
+  }
+
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.meltmedia.jgroups.aws;
+
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+import org.jgroups.stack.IpAddress;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Probes each host from the first port of the range upward, as far as its members have answered, instead of on every
+ * port of the range.  A host is first probed on the first port only.  When a member answers from the highest port
+ * probed on its host, the next port is probed right away, so the members of a host are found one after another within
+ * a discovery round, and later rounds probe the ports that answered in the previous round and the next one.  When the
+ * members on the high ports leave, their ports stop being probed after a round, and a host where nothing answered is
+ * probed on the first port only again.
+ *
+ * Members past a port nothing answers on are not found, so the members of a host should bind consecutive ports from
+ * the first one, as the transports do when they search their port range.
+ */
+public class HostProbes {
+  private static Log log = LogFactory.getLog(AWS_PING.class);
+
+  private final int portNumber;
+  private final int lastPort;
+  private final Map<InetAddress, Host> hosts = new ConcurrentHashMap<>();
+
+  /**
+   * @param portNumber the first port of the range.
+   * @param portRange the number of ports above the first one.
+   */
+  public HostProbes(final int portNumber, final int portRange) {
+    this.portNumber = portNumber;
+    this.lastPort = portNumber + portRange;
+  }
+
+  /**
+   * Gets the addresses to probe on each host, from the first port up to the port above the highest one that answered
+   * since the previous call.
+   *
+   * @param privateIpAddresses the hosts to probe.
+   * @param self the physical address of this node, which answers for its own host, or null.
+   * @return the addresses to probe.
+   */
+  public List<IpAddress> expand(final List<String> privateIpAddresses, final IpAddress self) {
+    final List<IpAddress> result = new ArrayList<>(privateIpAddresses.size());
+    for (final String address : privateIpAddresses) {
+      final InetAddress inetAddress;
+      try {
+        inetAddress = InetAddress.getByName(address);
+      } catch (UnknownHostException e) {
+        log.warn("failed to create ip address", e);
+        continue;
+      }
+      final Host host = hosts.computeIfAbsent(inetAddress, k -> new Host());
+      final int last;
+      synchronized (host) {
+        if (host.probed != 0) {
+          host.highest = host.answered;
+        }
+        host.answered = portNumber - 1;
+        if (self != null && inetAddress.equals(self.getIpAddress()) && self.getPort() <= lastPort) {
+          host.highest = Math.max(host.highest, self.getPort());
+          host.answered = Math.max(host.answered, self.getPort());
+        }
+        last = Math.min(Math.max(host.highest + 1, portNumber), lastPort);
+        host.probed = last;
+      }
+      for (int port = portNumber; port <= last; port++) {
+        result.add(new IpAddress(inetAddress, port));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Records that a member answered, and gets the next port to probe on its host.
+   *
+   * @param member the physical address of the member.
+   * @return the address to probe next, or null if the port above was already probed, is past the range, or the host
+   * was not probed.
+   */
+  public IpAddress answered(final IpAddress member) {
+    final int port = member.getPort();
+    if (member.getIpAddress() == null || port < portNumber || port > lastPort) {
+      return null;
+    }
+    final Host host = hosts.computeIfAbsent(member.getIpAddress(), k -> new Host());
+    synchronized (host) {
+      host.highest = Math.max(host.highest, port);
+      host.answered = Math.max(host.answered, port);
+      if (host.probed == 0 || port < host.probed || port == lastPort) {
+        return null;
+      }
+      host.probed = port + 1;
+    }
+    return new IpAddress(member.getIpAddress(), port + 1);
+  }
+
+  /**
+   * @return the number of ports probed on the hosts, out of the full range on each.
+   */
+  public long getProbedPorts() {
+    return hosts.values().stream().mapToLong(host -> {
+      synchronized (host) {
+        return host.probed == 0 ? 0 : host.probed - portNumber + 1;
+      }
+    }).sum();
+  }
+
+  /**
+   * The highest port probed on a host, 0 until the host is probed, the highest port the probes are expanded from, and
+   * the highest port that answered since the last expansion.
+   */
+  private class Host {
+    private int highest = portNumber - 1;
+    private int answered = portNumber - 1;
+    private int probed = 0;
+  }
+}
@@ -0,0 +1,401 @@
+package com.meltmedia.jgroups.aws;
+
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Shares the members found by one JVM with the other JVMs on the host, through a memory mapped file.  The JVM that
+ * holds a lock on the file, its lease, looks the members up and writes them to the file.  The other JVMs read the
+ * file without locking, and only look the members up themselves when the snapshot is older than the max age, was
+ * written for another lookup, or cannot be read.  A JVM that finds a stale snapshot tries to take the lease, so the
+ * lease moves on when its holder exits.
+ *
+ * The file holds a header and the addresses, IPv4 addresses in 5 bytes each.  The writer makes the sequence number odd
+ * while it writes and even when it is done, and the header carries a CRC of the snapshot, so readers retry or give up
+ * on a snapshot that changed while they read it.  The protocols of a JVM that use the same file share its mapping and
+ * its lease.
+ */
+public class HostSnapshot {
+  private static Log log = LogFactory.getLog(AWS_PING.class);
+
+  private static final int MAGIC = 0x41575350;
+  private static final int FORMAT = 1;
+  private static final int SEQUENCE = 8;
+  private static final int FINGERPRINT = 16;
+  private static final int WRITTEN_AT = 24;
+  private static final int COUNT = 32;
+  private static final int PAYLOAD_LENGTH = 36;
+  private static final int CHECKSUM = 40;
+  private static final int HEADER = 44;
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+  private static final int READ_ATTEMPTS = 3;
+  private static final byte IPV4 = 4;
+  private static final byte TEXT = 0;
+  // the lease is a lock on a byte past the end of the file, so it never covers the mapped snapshot.
+  private static final long LEASE_POSITION = Long.MAX_VALUE - 1;
+  private static final Map<Path, SharedFile> sharedFiles = new HashMap<>();
+
+  private final SharedFile file;
+  private final long fingerprint;
+  private final long maxAge;
+  private final AtomicBoolean released = new AtomicBoolean();
+  private final AtomicLong reads = new AtomicLong();
+  private final AtomicLong lookups = new AtomicLong();
+
+  /**
+   * @param path the file shared by the JVMs on the host, created if missing.
+   * @param key identifies the lookup, so JVMs only read the snapshots written for the same lookup.
+   * @param maxAge the number of milliseconds a snapshot is read before it is looked up again.
+   * @throws IOException if the file cannot be created or mapped.
+   * @throws IllegalArgumentException if the max age is not positive.
+   */
+  public HostSnapshot(final Path path, final String key, final long maxAge) throws IOException {
+    this(path, key, maxAge, true);
+  }
+
+  /**
+   * @param shareFile false opens the file on its own, as another JVM would.
+   */
+  HostSnapshot(final Path path, final String key, final long maxAge, final boolean shareFile) throws IOException {
+    if (maxAge <= 0) {
+      throw new IllegalArgumentException("host_snapshot_max_age must be positive");
+    }
+    this.file = shareFile ? acquire(path) : new SharedFile(path);
+    if (!shareFile) {
+      file.references++;
+    }
+    this.fingerprint = fingerprint(key);
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * Gets the members from the snapshot, or looks them up.  The lease holder always looks them up, and writes them to
+   * the snapshot.
+   *
+   * @param lookup looks the members up.
+   * @return the members.
+   */
+  public List<String> get(final Supplier<List<String>> lookup) {
+    if (!file.holdsLease()) {
+      final List<String> snapshot = file.read(fingerprint, maxAge, System.currentTimeMillis());
+      if (snapshot != null) {
+        reads.incrementAndGet();
+        return snapshot;
+      }
+      if (!file.tryAcquireLease()) {
+        lookups.incrementAndGet();
+        return lookup.get();
+      }
+    }
+
+    lookups.incrementAndGet();
+    final List<String> result = lookup.get();
+    try {
+      file.write(fingerprint, result, System.currentTimeMillis());
+    } catch (IOException | IllegalArgumentException e) {
+      log.warn("failed to write the host snapshot " + file.path, e);
+    }
+    return result;
+  }
+
+  /**
+   * Releases the file.  It is unmapped, and its lease released, when the last protocol of the JVM using it releases it.
+   */
+  public void release() {
+    if (!released.compareAndSet(false, true)) {
+      return;
+    }
+    synchronized (sharedFiles) {
+      if (--file.references == 0) {
+        sharedFiles.remove(file.path, file);
+        file.close();
+      }
+    }
+  }
+
+  /**
+   * @return true if this JVM holds the lease, and writes the snapshot.
+   */
+  public boolean isLeaseHolder() {
+    return file.holdsLease();
+  }
+
+  /**
+   * @return the number of lookups answered from the snapshot.
+   */
+  public long getReads() {
+    return reads.get();
+  }
+
+  /**
+   * @return the number of lookups made, by the lease holder or after the snapshot could not be read.
+   */
+  public long getLookups() {
+    return lookups.get();
+  }
+
+  /**
+   * @return the 64 bit FNV-1a hash of the key.
+   */
+  static long fingerprint(final String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (final byte b : key.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static SharedFile acquire(final Path path) throws IOException {
+    try {
+      Files.createFile(path);
+    } catch (FileAlreadyExistsException e) {
+      // another JVM on the host created it.
+    }
+    final Path realPath = path.toRealPath();
+    synchronized (sharedFiles) {
+      SharedFile file = sharedFiles.get(realPath);
+      if (file == null) {
+        file = new SharedFile(realPath);
+        sharedFiles.put(realPath, file);
+      }
+      file.references++;
+      return file;
+    }
+  }
+
+  private static byte[] encode(final List<String> addresses) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(addresses.size() * 5);
+    for (final String address : addresses) {
+      final byte[] ipv4 = parseIpv4(address);
+      if (ipv4 != null) {
+        out.write(IPV4);
+        out.write(ipv4, 0, ipv4.length);
+      } else {
+        final byte[] text = address.getBytes(StandardCharsets.UTF_8);
+        if (text.length > 0xffff) {
+          throw new IllegalArgumentException("address too long for the host snapshot");
+        }
+        out.write(TEXT);
+        out.write(text.length >>> 8);
+        out.write(text.length);
+        out.write(text, 0, text.length);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @return the addresses, or null if the payload does not hold count of them.
+   */
+  private static List<String> decode(final byte[] payload, final int count) {
+    final List<String> addresses = new ArrayList<>(count);
+    final ByteBuffer in = ByteBuffer.wrap(payload);
+    try {
+      for (int i = 0; i < count; i++) {
+        if (in.get() == IPV4) {
+          addresses.add((in.get() & 0xff) + "." + (in.get() & 0xff) + "." + (in.get() & 0xff) + "." + (in.get() & 0xff));
+        } else {
+          final byte[] text = new byte[in.getShort() & 0xffff];
+          in.get(text);
+          addresses.add(new String(text, StandardCharsets.UTF_8));
+        }
+      }
+    } catch (RuntimeException e) {
+      return null;
+    }
+    return in.hasRemaining() ? null : addresses;
+  }
+
+  /**
+   * @return the bytes of a dotted quad IPv4 address, or null for any other address.
+   */
+  private static byte[] parseIpv4(final String address) {
+    final String[] parts = address.split("\\.", -1);
+    if (parts.length != 4) {
+      return null;
+    }
+    final byte[] bytes = new byte[4];
+    for (int i = 0; i < 4; i++) {
+      final String part = parts[i];
+      if (part.isEmpty() || part.length() > 3 || (part.length() > 1 && part.charAt(0) == '0')) {
+        return null;
+      }
+      int value = 0;
+      for (int j = 0; j < part.length(); j++) {
+        final char c = part.charAt(j);
+        if (c < '0' || c > '9') {
+          return null;
+        }
+        value = value * 10 + (c - '0');
+      }
+      if (value > 255) {
+        return null;
+      }
+      bytes[i] = (byte) value;
+    }
+    return bytes;
+  }
+
+  private static int checksum(final long fingerprint, final long writtenAt, final int count, final byte[] payload) {
+    final CRC32 crc = new CRC32();
+    crc.update(ByteBuffer.allocate(20).putLong(fingerprint).putLong(writtenAt).putInt(count).array());
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * The mapping and lease of a file, shared by the protocols of the JVM that use it.
+   */
+  private static class SharedFile {
+    private final Path path;
+    private final FileChannel channel;
+    private int references = 0;
+    private volatile FileLock lease;
+    private volatile MappedByteBuffer buffer;
+
+    private SharedFile(final Path path) throws IOException {
+      this.path = path;
+      this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, channel.size()));
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    private boolean holdsLease() {
+      return lease != null;
+    }
+
+    private synchronized boolean tryAcquireLease() {
+      if (lease == null) {
+        try {
+          lease = channel.tryLock(LEASE_POSITION, 1, false);
+        } catch (IOException | OverlappingFileLockException e) {
+          log.debug("failed to lock the host snapshot " + path, e);
+        }
+        if (lease != null) {
+          log.info("Writing the host snapshot [%s] for this host", path);
+        }
+      }
+      return lease != null;
+    }
+
+    /**
+     * Reads the snapshot without locking.
+     *
+     * @return the addresses, or null if the snapshot is stale, belongs to another lookup or cannot be read.
+     */
+    private List<String> read(final long fingerprint, final long maxAge, final long now) {
+      for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+        final ByteBuffer snapshot = buffer.duplicate();
+        final long sequence = snapshot.getLong(SEQUENCE);
+        if ((sequence & 1) != 0) {
+          Thread.yield();
+          continue;
+        }
+        if (snapshot.getInt(0) != MAGIC || snapshot.getInt(4) != FORMAT) {
+          return null;
+        }
+        final long snapshotFingerprint = snapshot.getLong(FINGERPRINT);
+        final long writtenAt = snapshot.getLong(WRITTEN_AT);
+        final int count = snapshot.getInt(COUNT);
+        final int length = snapshot.getInt(PAYLOAD_LENGTH);
+        final int checksum = snapshot.getInt(CHECKSUM);
+        if (length < 0 || count < 0) {
+          continue;
+        }
+        if (HEADER + length > snapshot.capacity()) {
+          try {
+            remap(HEADER + length, false);
+          } catch (IOException e) {
+            log.debug("failed to map the host snapshot " + path, e);
+            return null;
+          }
+          continue;
+        }
+        final byte[] payload = new byte[length];
+        snapshot.position(HEADER);
+        snapshot.get(payload);
+        if (snapshot.getLong(SEQUENCE) != sequence
+            || checksum != checksum(snapshotFingerprint, writtenAt, count, payload)) {
+          continue;
+        }
+
+        final long age = now - writtenAt;
+        if (snapshotFingerprint != fingerprint || age < 0 || age > maxAge) {
+          return null;
+        }
+        return decode(payload, count);
+      }
+      return null;
+    }
+
+    private synchronized void write(final long fingerprint, final List<String> addresses, final long now)
+        throws IOException {
+      final byte[] payload = encode(addresses);
+      remap(HEADER + payload.length, true);
+      final ByteBuffer snapshot = buffer.duplicate();
+      final long writing = snapshot.getLong(SEQUENCE) | 1;
+      snapshot.putLong(SEQUENCE, writing);
+      snapshot.putInt(0, MAGIC);
+      snapshot.putInt(4, FORMAT);
+      snapshot.putLong(FINGERPRINT, fingerprint);
+      snapshot.putLong(WRITTEN_AT, now);
+      snapshot.putInt(COUNT, addresses.size());
+      snapshot.putInt(PAYLOAD_LENGTH, payload.length);
+      snapshot.putInt(CHECKSUM, checksum(fingerprint, now, addresses.size(), payload));
+      snapshot.position(HEADER);
+      snapshot.put(payload);
+      snapshot.putLong(SEQUENCE, writing + 1);
+    }
+
+    /**
+     * Maps at least the given number of bytes.  Readers only map what the writer has already written.
+     */
+    private synchronized void remap(final int size, final boolean grow) throws IOException {
+      if (buffer.capacity() >= size) {
+        return;
+      }
+      final long available = channel.size();
+      if (grow) {
+        final long capacity = Math.max(size, Math.min(2L * buffer.capacity(), Integer.MAX_VALUE));
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      } else if (available >= size && available <= Integer.MAX_VALUE) {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, available);
+      }
+    }
+
+    private synchronized void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("failed to close the host snapshot " + path, e);
+      }
+      lease = null;
+    }
+  }
+}
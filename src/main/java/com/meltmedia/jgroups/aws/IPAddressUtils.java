@@ -4,12 +4,10 @@ import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
 import org.jgroups.stack.IpAddress;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-
-import static java.util.stream.Stream.empty;
-import static java.util.stream.Stream.of;
 
 public class IPAddressUtils {
   private static Log log = LogFactory.getLog(AWS_PING.class);
@@ -22,28 +20,24 @@ public class IPAddressUtils {
     this.portRange = portRange;
   }
 
+  /**
+   * Expands each address to every port in the range.  Each address is parsed once and shared by its ports, since
+   * this runs in every discovery round.
+   */
   public List<IpAddress> expandClusterMemberPorts(final List<String> privateIpAddresses) {
-    return privateIpAddresses.stream()
-        .flatMap(address -> IntStream.range(portNumber, portNumber + portRange + 1)
-            .mapToObj(port -> new AddressAndPort(address, port)))
-        .flatMap(addressAndPort -> {
-          try {
-            return of(new IpAddress(addressAndPort.address, addressAndPort.port));
-          } catch (Exception e) {
-            log.warn("failed to create ip address", e);
-            return empty();
-          }
-        })
-        .collect(Collectors.toList());
-  }
-
-  private static class AddressAndPort {
-    public final String address;
-    public final int port;
-
-    private AddressAndPort(final String address, final int port) {
-      this.address = address;
-      this.port = port;
+    final List<IpAddress> result = new ArrayList<>(privateIpAddresses.size() * (portRange + 1));
+    for (final String address : privateIpAddresses) {
+      final InetAddress inetAddress;
+      try {
+        inetAddress = InetAddress.getByName(address);
+      } catch (UnknownHostException e) {
+        log.warn("failed to create ip address", e);
+        continue;
+      }
+      for (int port = portNumber; port <= portNumber + portRange; port++) {
+        result.add(new IpAddress(inetAddress, port));
+      }
     }
+    return result;
   }
 }
@@ -0,0 +1,22 @@
+package com.meltmedia.jgroups.aws;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A request to the instance metadata service.
+ */
+@Name("com.meltmedia.jgroups.aws.ImdsFetch")
+@Label("IMDS Fetch")
+@Category({"JGroups", "AWS_PING"})
+final class ImdsFetchEvent extends jdk.jfr.Event {
+  @Label("Path")
+  String path;
+
+  @Label("Status Code")
+  int statusCode;
+
+  @Label("Error")
+  String error;
+}
@@ -1,8 +1,5 @@
 package com.meltmedia.jgroups.aws;
 
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
@@ -12,9 +9,10 @@ import org.apache.http.util.EntityUtils;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
-@JsonIgnoreProperties(ignoreUnknown = true)
 public class InstanceIdentity {
 
   private static final String INSTANCE_DATA  = System.getProperty("instance.data", "169.254.169.254");
@@ -38,15 +36,31 @@ public class InstanceIdentity {
   public final String imageId;
   public final String architecture;
   public final String region;
+  /**
+   * The time the instance was launched, as an ISO-8601 instant, or null if it is unknown.
+   */
+  public final String pendingTime;
+
+  public InstanceIdentity(
+      final String availabilityZone,
+      final String privateIp,
+      final String instanceId,
+      final String instanceType,
+      final String imageId,
+      final String architecture,
+      final String region) {
+    this(availabilityZone, privateIp, instanceId, instanceType, imageId, architecture, region, null);
+  }
 
   public InstanceIdentity(
-      @JsonProperty("availabilityZone") final String availabilityZone,
-      @JsonProperty("privateIp") final String privateIp,
-      @JsonProperty("instanceId") final String instanceId,
-      @JsonProperty("instanceType") final String instanceType,
-      @JsonProperty("imageId") final String imageId,
-      @JsonProperty("architecture") final String architecture,
-      @JsonProperty("region") final String region) {
+      final String availabilityZone,
+      final String privateIp,
+      final String instanceId,
+      final String instanceType,
+      final String imageId,
+      final String architecture,
+      final String region,
+      final String pendingTime) {
     this.availabilityZone = Objects.requireNonNull(availabilityZone, "availabilityZone cannot be null");
     this.privateIp = Objects.requireNonNull(privateIp, "privateIp cannot be null");
     this.instanceId = Objects.requireNonNull(instanceId, "instanceId cannot be null");
@@ -54,10 +68,41 @@ public class InstanceIdentity {
     this.imageId = Objects.requireNonNull(imageId, "imageId cannot be null");
     this.architecture = Objects.requireNonNull(architecture, "architecture cannot be null");
     this.region = Objects.requireNonNull(region, "region cannot be null");
+    this.pendingTime = pendingTime;
   }
 
   public static InstanceIdentity getIdentity(final HttpClient client) throws IOException {
-    return new ObjectMapper().readValue(getIdentityDocument(client), InstanceIdentity.class);
+    return fromDocument(getIdentityDocument(client));
+  }
+
+  /**
+   * Reads the fields of an instance identity document.  The document is a flat object of strings, so it is read
+   * directly instead of through a data binding library, which keeps the classes loaded at startup to a minimum.
+   * Fields that are not used are skipped.
+   *
+   * @param document the identity document.
+   * @return the identity.
+   * @throws IOException if the document is not a JSON object, or a required field is missing.
+   */
+  static InstanceIdentity fromDocument(final String document) throws IOException {
+    final Map<String, String> fields = new DocumentReader(document).readObject();
+    return new InstanceIdentity(
+        required(fields, "availabilityZone"),
+        required(fields, "privateIp"),
+        required(fields, "instanceId"),
+        required(fields, "instanceType"),
+        required(fields, "imageId"),
+        required(fields, "architecture"),
+        required(fields, "region"),
+        fields.get("pendingTime"));
+  }
+
+  private static String required(final Map<String, String> fields, final String name) throws IOException {
+    final String value = fields.get(name);
+    if (value == null) {
+      throw new IOException("invalid instance identity document, " + name + " is missing");
+    }
+    return value;
   }
 
   /**
@@ -68,16 +113,165 @@ public class InstanceIdentity {
    * @throws IOException if there is an error encountered while getting the content.
    */
   private static String getIdentityDocument(final HttpClient client) throws IOException {
+    final ImdsFetchEvent event = FlightRecorderEvents.beginImdsFetch();
+    int status = 0;
+    String error = null;
     try {
       final HttpGet getInstance = new HttpGet();
       getInstance.setURI(INSTANCE_IDENTITY_URI);
       final HttpResponse response = client.execute(getInstance);
-      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+      status = response.getStatusLine().getStatusCode();
+      if (status != HttpStatus.SC_OK) {
         throw new IOException("failed to get instance identity, tried: " + INSTANCE_IDENTITY_URL + ", response: " + response.getStatusLine().getReasonPhrase());
       }
       return EntityUtils.toString(response.getEntity());
-    } catch (Exception e) {
-      throw new IOException("failed to get instance identity", e);
+    } catch (IOException | RuntimeException e) {
+      error = e.getClass().getSimpleName();
+      throw e;
+    } finally {
+      FlightRecorderEvents.commitImdsFetch(event, "dynamic/instance-identity/document", status, error);
+    }
+  }
+
+  /**
+   * Reads the top level string, number and boolean fields of a JSON object.  Nested objects and arrays are skipped.
+   */
+  private static class DocumentReader {
+    private final String json;
+    private int pos;
+
+    private DocumentReader(final String json) {
+      this.json = json;
+    }
+
+    private Map<String, String> readObject() throws IOException {
+      final Map<String, String> fields = new HashMap<>();
+      expect('{');
+      if (peek() == '}') {
+        pos++;
+        return fields;
+      }
+      do {
+        final String name = readString();
+        expect(':');
+        final String value = readValue();
+        if (value != null) {
+          fields.put(name, value);
+        }
+      } while (next(',', '}') == ',');
+      return fields;
+    }
+
+    /**
+     * Reads a value, returning null for null, objects and arrays.
+     */
+    private String readValue() throws IOException {
+      final char c = peek();
+      if (c == '"') {
+        return readString();
+      }
+      if (c == '{' || c == '[') {
+        skipNested();
+        return null;
+      }
+      final int start = pos;
+      while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+        pos++;
+      }
+      final String literal = json.substring(start, pos);
+      if (literal.isEmpty()) {
+        throw error("expected a value");
+      }
+      return "null".equals(literal) ? null : literal;
+    }
+
+    private String readString() throws IOException {
+      expect('"');
+      final StringBuilder value = new StringBuilder();
+      while (pos < json.length()) {
+        final char c = json.charAt(pos++);
+        if (c == '"') {
+          return value.toString();
+        }
+        if (c != '\\') {
+          value.append(c);
+          continue;
+        }
+        if (pos >= json.length()) {
+          break;
+        }
+        final char escaped = json.charAt(pos++);
+        switch (escaped) {
+          case 'b': value.append('\b'); break;
+          case 'f': value.append('\f'); break;
+          case 'n': value.append('\n'); break;
+          case 'r': value.append('\r'); break;
+          case 't': value.append('\t'); break;
+          case 'u':
+            if (pos + 4 > json.length()) {
+              throw error("truncated unicode escape");
+            }
+            try {
+              value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+            } catch (NumberFormatException e) {
+              throw error("invalid unicode escape");
+            }
+            pos += 4;
+            break;
+          default: value.append(escaped);
+        }
+      }
+      throw error("unterminated string");
+    }
+
+    private void skipNested() throws IOException {
+      int depth = 0;
+      do {
+        final char c = peek();
+        if (c == '"') {
+          readString();
+          continue;
+        }
+        if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          depth--;
+        }
+        pos++;
+      } while (depth > 0);
+    }
+
+    private char next(final char first, final char second) throws IOException {
+      final char c = peek();
+      if (c != first && c != second) {
+        throw error("expected '" + first + "' or '" + second + "'");
+      }
+      pos++;
+      return c;
+    }
+
+    private void expect(final char expected) throws IOException {
+      if (peek() != expected) {
+        throw error("expected '" + expected + "'");
+      }
+      pos++;
+    }
+
+    /**
+     * Skips whitespace and returns the next character, without consuming it.
+     */
+    private char peek() throws IOException {
+      while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+        pos++;
+      }
+      if (pos >= json.length()) {
+        throw error("unexpected end of document");
+      }
+      return json.charAt(pos);
+    }
+
+    private IOException error(final String message) {
+      return new IOException("invalid instance identity document, " + message + " at " + pos);
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package com.meltmedia.jgroups.aws;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Reads single values from the EC2 instance metadata service.
+ */
+public class InstanceMetadata {
+  private static final String INSTANCE_DATA = System.getProperty("instance.data", "169.254.169.254");
+  private static final String META_DATA_URL = String.format("http://%s/latest/meta-data/", INSTANCE_DATA);
+
+  private final HttpClient client;
+  private final String metaDataUrl;
+
+  public InstanceMetadata(final HttpClient client) {
+    this(client, META_DATA_URL);
+  }
+
+  public InstanceMetadata(final HttpClient client, final String metaDataUrl) {
+    this.client = client;
+    this.metaDataUrl = metaDataUrl.endsWith("/") ? metaDataUrl : metaDataUrl + "/";
+  }
+
+  /**
+   * @return the MAC address of the primary network interface of this instance.
+   * @throws IOException if the value could not be read.
+   */
+  public String getMac() throws IOException {
+    return require("mac");
+  }
+
+  /**
+   * @return the id of the subnet the primary network interface of this instance is attached to.
+   * @throws IOException if the value could not be read.
+   */
+  public String getSubnetId() throws IOException {
+    return require("network/interfaces/macs/" + getMac() + "/subnet-id");
+  }
+
+  /**
+   * @return the ids of the security groups applied to the primary network interface of this instance.
+   * @throws IOException if the value could not be read.
+   */
+  public List<String> getSecurityGroupIds() throws IOException {
+    return Arrays.stream(require("network/interfaces/macs/" + getMac() + "/security-group-ids").split("\\s+"))
+        .map(String::trim)
+        .filter(id -> !id.isEmpty())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Gets a metadata value, relative to the latest/meta-data/ endpoint.
+   *
+   * @param path the path of the value.
+   * @return the value, or empty if the metadata service does not define the path.
+   * @throws IOException if there is an error encountered while getting the content.
+   */
+  public Optional<String> get(final String path) throws IOException {
+    final String url = metaDataUrl + path;
+    final ImdsFetchEvent event = FlightRecorderEvents.beginImdsFetch();
+    int status = 0;
+    String error = null;
+    try {
+      final HttpGet get = new HttpGet();
+      get.setURI(new URI(url));
+      final HttpResponse response = client.execute(get);
+      status = response.getStatusLine().getStatusCode();
+      if (status == HttpStatus.SC_NOT_FOUND) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        return Optional.empty();
+      }
+      if (status != HttpStatus.SC_OK) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        throw new IOException("failed to get instance metadata, tried: " + url + ", response: " + response.getStatusLine().getReasonPhrase());
+      }
+      return Optional.of(EntityUtils.toString(response.getEntity()).trim());
+    } catch (IOException e) {
+      error = e.getClass().getSimpleName();
+      throw e;
+    } catch (Exception e) {
+      error = e.getClass().getSimpleName();
+      throw new IOException("failed to get instance metadata " + path, e);
+    } finally {
+      FlightRecorderEvents.commitImdsFetch(event, path, status, error);
+    }
+  }
+
+  private String require(final String path) throws IOException {
+    return get(path).orElseThrow(() -> new IOException("instance metadata " + path + " is not defined"));
+  }
+}
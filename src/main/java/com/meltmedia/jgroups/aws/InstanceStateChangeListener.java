@@ -0,0 +1,234 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Consumes EC2 instance state-change notifications from an SQS queue, usually the target of an EventBridge
+ * (CloudWatch Events) rule, and applies them to the address cache.  Instances that start running are looked up
+ * with the cluster's filters and handed to a consumer, so they can be pinged right away.  Instances that stop are
+ * removed from the cache.
+ */
+public class InstanceStateChangeListener implements Runnable {
+  private static Log log = LogFactory.getLog(AWS_PING.class);
+  private static final Set<String> STOPPED_STATES = new HashSet<>(Arrays.asList("shutting-down", "terminated", "stopping", "stopped"));
+  private static final int WAIT_TIME_SECONDS = 20;
+  private static final int MAX_MESSAGES = 10;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final AmazonSQS sqs;
+  private final String queueUrl;
+  private final AddressCache addressCache;
+  private final Function<Collection<String>, List<String>> clusterAddresses;
+  private final Function<Collection<String>, List<String>> instanceAddresses;
+  private final Consumer<List<String>> newAddressConsumer;
+  /**
+   * The thread polling the queue.  A thread left in a long poll by stop exits when it sees it was replaced.
+   */
+  private volatile Thread thread;
+
+  /**
+   * @param sqs the client for the queue.
+   * @param queueUrl the url of the queue receiving the notifications.
+   * @param addressCache the cache to update.
+   * @param clusterAddresses looks up the addresses of the given instance ids that match the cluster's filters.
+   * @param instanceAddresses looks up the addresses of the given instance ids, regardless of the cluster's filters.
+   * @param newAddressConsumer receives the addresses that were added to the cache.
+   */
+  public InstanceStateChangeListener(
+      final AmazonSQS sqs,
+      final String queueUrl,
+      final AddressCache addressCache,
+      final Function<Collection<String>, List<String>> clusterAddresses,
+      final Function<Collection<String>, List<String>> instanceAddresses,
+      final Consumer<List<String>> newAddressConsumer) {
+    this.sqs = sqs;
+    this.queueUrl = queueUrl;
+    this.addressCache = addressCache;
+    this.clusterAddresses = clusterAddresses;
+    this.instanceAddresses = instanceAddresses;
+    this.newAddressConsumer = newAddressConsumer;
+  }
+
+  /**
+   * Creates a listener with a client for the queue.  The SQS client is only referenced from here, so AWS_PING loads
+   * without aws-java-sdk-sqs when state_change_queue_url is not set.
+   *
+   * @param credentials the credentials for the queue.
+   * @param region the region of the queue.
+   */
+  public static InstanceStateChangeListener create(
+      final AWSCredentialsProvider credentials,
+      final String region,
+      final String queueUrl,
+      final AddressCache addressCache,
+      final Function<Collection<String>, List<String>> clusterAddresses,
+      final Function<Collection<String>, List<String>> instanceAddresses,
+      final Consumer<List<String>> newAddressConsumer) {
+    final AmazonSQS sqs = AmazonSQSClientBuilder.standard()
+        .withCredentials(credentials)
+        .withRegion(region)
+        .build();
+    return new InstanceStateChangeListener(
+        sqs, queueUrl, addressCache, clusterAddresses, instanceAddresses, newAddressConsumer);
+  }
+
+  public synchronized void start() {
+    if (thread == null) {
+      final Thread poller = new Thread(this, "AWS_PING-state-change-listener");
+      poller.setDaemon(true);
+      thread = poller;
+      poller.start();
+    }
+  }
+
+  public synchronized void stop() {
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  /**
+   * Stops the listener and shuts the queue's client down.
+   */
+  public synchronized void close() {
+    stop();
+    sqs.shutdown();
+  }
+
+  @Override
+  public void run() {
+    while (isPolling()) {
+      try {
+        poll();
+      } catch (Exception e) {
+        if (!isPolling()) {
+          return;
+        }
+        log.warn("failed to receive instance state changes from " + queueUrl, e);
+        try {
+          Thread.sleep(1000);
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if the current thread is still the listener's poller.  The SDK does not abort a long poll when it is
+   * interrupted, so a thread stopped during one may only return after the listener was started again.
+   */
+  private boolean isPolling() {
+    return Thread.currentThread() == thread;
+  }
+
+  /**
+   * Receives one batch of notifications from the queue and applies them.
+   */
+  void poll() {
+    final List<Message> messages = sqs.receiveMessage(new ReceiveMessageRequest(queueUrl)
+        .withWaitTimeSeconds(WAIT_TIME_SECONDS)
+        .withMaxNumberOfMessages(MAX_MESSAGES))
+        .getMessages();
+    if (messages.isEmpty()) {
+      return;
+    }
+
+    final Set<String> started = new HashSet<>();
+    final Set<String> stopped = new HashSet<>();
+    for (final Message message : messages) {
+      final JsonNode detail = readDetail(message.getBody());
+      if (detail == null) {
+        continue;
+      }
+      final String instanceId = detail.path("instance-id").asText(null);
+      final String state = detail.path("state").asText(null);
+      if (instanceId == null || state == null) {
+        continue;
+      }
+      if ("running".equals(state)) {
+        started.add(instanceId);
+        stopped.remove(instanceId);
+      } else if (STOPPED_STATES.contains(state)) {
+        stopped.add(instanceId);
+        started.remove(instanceId);
+      }
+    }
+
+    apply(started, stopped);
+
+    final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+    for (int i = 0; i < messages.size(); i++) {
+      entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), messages.get(i).getReceiptHandle()));
+    }
+    sqs.deleteMessageBatch(queueUrl, entries);
+  }
+
+  private void apply(final Set<String> started, final Set<String> stopped) {
+    if (!stopped.isEmpty()) {
+      try {
+        final List<String> removed = instanceAddresses.apply(stopped);
+        addressCache.remove(removed);
+        log.debug("Instances %s stopped, removed addresses [%s]", stopped, removed);
+      } catch (AmazonClientException e) {
+        log.debug("failed to look up stopped instances " + stopped + ", leaving them to reconciliation", e);
+      }
+    }
+    if (!started.isEmpty()) {
+      // instances that just launched may not be visible to DescribeInstances yet, and the batch must still be deleted.
+      final List<String> added;
+      try {
+        added = addressCache.add(clusterAddresses.apply(started));
+      } catch (AmazonClientException e) {
+        log.debug("failed to look up started instances " + started + ", leaving them to reconciliation", e);
+        return;
+      }
+      log.debug("Instances %s started, added addresses [%s]", started, added);
+      if (!added.isEmpty()) {
+        newAddressConsumer.accept(added);
+      }
+    }
+  }
+
+  /**
+   * Reads the detail of an EC2 state-change notification, unwrapping SNS notifications if needed.
+   *
+   * @return the detail node, or null if the body is not a state-change notification.
+   */
+  private JsonNode readDetail(final String body) {
+    try {
+      JsonNode event = mapper.readTree(body);
+      if ("Notification".equals(event.path("Type").asText()) && event.has("Message")) {
+        event = mapper.readTree(event.get("Message").asText());
+      }
+      if (!"aws.ec2".equals(event.path("source").asText()) || !event.has("detail")) {
+        log.debug("Ignoring message that is not an EC2 state-change notification [%s]", body);
+        return null;
+      }
+      return event.get("detail");
+    } catch (Exception e) {
+      log.debug("Ignoring message that could not be parsed [" + body + "]", e);
+      return null;
+    }
+  }
+}
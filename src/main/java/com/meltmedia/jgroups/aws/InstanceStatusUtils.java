@@ -0,0 +1,139 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
+import com.amazonaws.services.ec2.model.DescribeInstanceStatusResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceStatus;
+import com.amazonaws.services.ec2.model.InstanceStatusSummary;
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Finds instances that fail their status checks with the DescribeInstanceStatus action.  The statuses are looked up
+ * in batches and cached, since they change far less often than discovery rounds run.  Instances without a status,
+ * such as the ones that are still initializing, are treated as healthy.
+ */
+public class InstanceStatusUtils {
+  private static Log log = LogFactory.getLog(AWS_PING.class);
+  static final int BATCH_SIZE = 100;
+  private static final String IMPAIRED = "impaired";
+
+  private final AmazonEC2 ec2;
+  private final long cacheTtl;
+  private final Map<String, CachedStatus> statuses = new ConcurrentHashMap<>();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * @param ec2 the client to use.
+   * @param cacheTtl the number of milliseconds a status is cached.
+   */
+  public InstanceStatusUtils(final AmazonEC2 ec2, final long cacheTtl) {
+    this.ec2 = ec2;
+    this.cacheTtl = cacheTtl;
+  }
+
+  /**
+   * @return the number of milliseconds a status is cached.
+   */
+  public long getCacheTtl() {
+    return cacheTtl;
+  }
+
+  /**
+   * Drops the instances that fail their instance or system status check.
+   *
+   * @param instances the instances to check.
+   * @return the instances that are not impaired.
+   */
+  public List<Instance> dropImpaired(final List<Instance> instances) {
+    final long now = System.nanoTime();
+    final long ttl = TimeUnit.MILLISECONDS.toNanos(cacheTtl);
+    statuses.values().removeIf(status -> now - status.checkedAt >= ttl);
+
+    final List<String> unknown = instances.stream()
+        .map(Instance::getInstanceId)
+        .filter(id -> id != null && !statuses.containsKey(id))
+        .distinct()
+        .collect(Collectors.toList());
+    for (int i = 0; i < unknown.size(); i += BATCH_SIZE) {
+      describe(unknown.subList(i, Math.min(i + BATCH_SIZE, unknown.size())), now);
+    }
+
+    final List<Instance> result = new ArrayList<>();
+    for (final Instance instance : instances) {
+      final CachedStatus status = instance.getInstanceId() == null ? null : statuses.get(instance.getInstanceId());
+      if (status != null && status.impaired) {
+        log.debug("Dropping impaired instance %s", instance.getInstanceId());
+        dropped.incrementAndGet();
+      } else {
+        result.add(instance);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of instances dropped because they were impaired.
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * @return the number of cached instances that are impaired.
+   */
+  public long getImpaired() {
+    return statuses.values().stream().filter(status -> status.impaired).count();
+  }
+
+  private void describe(final List<String> instanceIds, final long now) {
+    try {
+      final List<String> healthy = new ArrayList<>(instanceIds);
+      String nextToken = null;
+      int pageNumber = 0;
+      do {
+        final DescribeInstanceStatusRequest request = new DescribeInstanceStatusRequest()
+            .withInstanceIds(instanceIds)
+            .withNextToken(nextToken);
+        final DescribeInstanceStatusResult response = FlightRecorderEvents.ec2Call(
+            "DescribeInstanceStatus",
+            ++pageNumber,
+            () -> ec2.describeInstanceStatus(request),
+            described -> described.getInstanceStatuses().size());
+        for (final InstanceStatus status : response.getInstanceStatuses()) {
+          final boolean impaired = isImpaired(status.getInstanceStatus()) || isImpaired(status.getSystemStatus());
+          statuses.put(status.getInstanceId(), new CachedStatus(impaired, now));
+          healthy.remove(status.getInstanceId());
+        }
+        nextToken = response.getNextToken();
+      } while (nextToken != null && !nextToken.isEmpty());
+      healthy.forEach(id -> statuses.put(id, new CachedStatus(false, now)));
+    } catch (AmazonClientException e) {
+      log.debug("failed to describe the status of instances " + instanceIds + ", treating them as healthy", e);
+    }
+  }
+
+  private static boolean isImpaired(final InstanceStatusSummary summary) {
+    return summary != null && IMPAIRED.equals(summary.getStatus());
+  }
+
+  private static class CachedStatus {
+    private final boolean impaired;
+    private final long checkedAt;
+
+    private CachedStatus(final boolean impaired, final long checkedAt) {
+      this.impaired = impaired;
+      this.checkedAt = checkedAt;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Finds cluster members with the DescribeInstances action, following the pages of the response.
+ */
+public class InstancesUtils {
+  private final AmazonEC2 ec2;
+  private final int pageSize;
+  private final InstanceStatusUtils statusUtils;
+
+  /**
+   * @param ec2 the client to use.
+   * @param pageSize the maximum number of instances per page, 0 lets EC2 decide.
+   */
+  public InstancesUtils(final AmazonEC2 ec2, final int pageSize) {
+    this(ec2, pageSize, null);
+  }
+
+  /**
+   * @param ec2 the client to use.
+   * @param pageSize the maximum number of instances per page, 0 lets EC2 decide.
+   * @param statusUtils drops impaired instances from the cluster lookups, or null to keep them.
+   */
+  public InstancesUtils(final AmazonEC2 ec2, final int pageSize, final InstanceStatusUtils statusUtils) {
+    this.ec2 = ec2;
+    this.pageSize = pageSize;
+    this.statusUtils = statusUtils;
+  }
+
+  /**
+   * Gets the private ip addresses of all the instances matching the filters.
+   *
+   * @param filters the filters to match.
+   * @param pageConsumer receives the addresses of each page as it arrives.
+   * @return the private ip addresses found.
+   */
+  public List<String> getPrivateIpAddresses(final List<Filter> filters, final Consumer<List<String>> pageConsumer) {
+    return privateIpAddresses(getInstances(filters, page -> pageConsumer.accept(privateIpAddresses(page))));
+  }
+
+  /**
+   * Gets all the instances matching the filters, with their tags.
+   *
+   * @param filters the filters to match.
+   * @param pageConsumer receives the instances of each page as it arrives.
+   * @return the instances found.
+   */
+  public List<Instance> getInstances(final List<Filter> filters, final Consumer<List<Instance>> pageConsumer) {
+    final DescribeInstancesRequest request = new DescribeInstancesRequest().withFilters(filters);
+    if (pageSize > 0) {
+      request.setMaxResults(pageSize);
+    }
+    return describe(request, statusUtils, pageConsumer);
+  }
+
+  /**
+   * Gets the private ip addresses of the given instances that match the filters.
+   *
+   * @param instanceIds the ids of the instances.
+   * @param filters the filters to match.
+   * @return the private ip addresses found.
+   */
+  public List<String> getPrivateIpAddresses(final Collection<String> instanceIds, final List<Filter> filters) {
+    return privateIpAddresses(describe(
+        new DescribeInstancesRequest().withInstanceIds(instanceIds).withFilters(filters), null, page -> {}));
+  }
+
+  /**
+   * @return the settings that decide which instances a lookup returns and how it queries them.  Lookups that share
+   * their results must agree on these.
+   */
+  List<Object> getQuerySettings() {
+    return Arrays.asList(pageSize, statusUtils == null ? null : statusUtils.getCacheTtl());
+  }
+
+  private List<Instance> describe(
+      final DescribeInstancesRequest request,
+      final InstanceStatusUtils statusCheck,
+      final Consumer<List<Instance>> pageConsumer) {
+    final List<Instance> result = new ArrayList<>();
+    String nextToken = null;
+    int pageNumber = 0;
+    do {
+      request.setNextToken(nextToken);
+      final DescribeInstancesResult response = FlightRecorderEvents.ec2Call(
+          "DescribeInstances",
+          ++pageNumber,
+          () -> ec2.describeInstances(request),
+          described -> instances(described).size());
+      final List<Instance> instances = instances(response);
+      final List<Instance> page = statusCheck != null ? statusCheck.dropImpaired(instances) : instances;
+      result.addAll(page);
+      pageConsumer.accept(page);
+      nextToken = response.getNextToken();
+    } while (nextToken != null && !nextToken.isEmpty());
+    return result;
+  }
+
+  private static List<Instance> instances(final DescribeInstancesResult response) {
+    // NOTE: the reservations group nodes together by when they were started. We
+    // need to dig through all of the reservations.
+    return response.getReservations().stream()
+        .flatMap(reservation -> reservation.getInstances().stream())
+        .collect(Collectors.toList());
+  }
+
+  static List<String> privateIpAddresses(final List<Instance> instances) {
+    return instances.stream()
+        .map(Instance::getPrivateIpAddress)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+  }
+}
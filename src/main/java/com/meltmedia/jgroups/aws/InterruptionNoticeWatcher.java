@@ -0,0 +1,94 @@
+package com.meltmedia.jgroups.aws;
+
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Polls the instance metadata service for spot interruption notices and rebalance recommendations.  The metadata
+ * service answers 404 for both until a notice is issued, so a poll is a cheap local request.  The consumer is called
+ * once for each notice.  Polling stops after a spot interruption notice, and goes on after a rebalance recommendation,
+ * which may be followed by an interruption or by nothing at all.
+ */
+public class InterruptionNoticeWatcher {
+  private static Log log = LogFactory.getLog(AWS_PING.class);
+  static final String SPOT_INSTANCE_ACTION = "spot/instance-action";
+  static final String REBALANCE_RECOMMENDATION = "events/recommendations/rebalance";
+  private static final List<String> NOTICES = Arrays.asList(SPOT_INSTANCE_ACTION, REBALANCE_RECOMMENDATION);
+
+  private final InstanceMetadata metadata;
+  private final BiConsumer<String, String> noticeConsumer;
+  private final Map<String, String> noticed = new ConcurrentHashMap<>();
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * @param metadata the metadata service to poll.
+   * @param noticeConsumer receives the path and document of each notice found.
+   */
+  public InterruptionNoticeWatcher(final InstanceMetadata metadata, final BiConsumer<String, String> noticeConsumer) {
+    this.metadata = metadata;
+    this.noticeConsumer = noticeConsumer;
+  }
+
+  /**
+   * Starts polling.  Notices found before a restart are reported again.
+   *
+   * @param interval the number of milliseconds between polls.
+   */
+  public synchronized void start(final long interval) {
+    if (scheduler == null) {
+      noticed.clear();
+      scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "AWS_PING-interruption-watcher");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.scheduleWithFixedDelay(() -> {
+        if (check()) {
+          stop();
+        }
+      }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdown();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Checks for notices once.  A notice is reported again if its document changes.
+   *
+   * @return true if a spot interruption notice has been found.
+   */
+  boolean check() {
+    for (final String path : NOTICES) {
+      try {
+        final Optional<String> notice = metadata.get(path);
+        if (notice.isPresent()) {
+          if (!notice.get().equals(noticed.put(path, notice.get()))) {
+            noticeConsumer.accept(path, notice.get());
+          }
+          if (SPOT_INSTANCE_ACTION.equals(path)) {
+            return true;
+          }
+        }
+      } catch (IOException e) {
+        log.debug("failed to poll " + path, e);
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,176 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.model.Filter;
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Looks members up in several regions, or accounts, concurrently and merges the results.  Each region has its own
+ * time budget, so a slow region does not hold up the others.  When a region runs out of time or fails, the addresses
+ * it returned last are used and its lookup keeps running in the background.
+ */
+public class MultiRegionLookup {
+  private static Log log = LogFactory.getLog(AWS_PING.class);
+
+  private final Map<String, InstancesUtils> regions;
+  private final Executor executor;
+  private final long regionTimeout;
+  private final Map<String, CompletableFuture<List<String>>> inFlight = new ConcurrentHashMap<>();
+  private final Map<String, List<String>> lastAddresses = new ConcurrentHashMap<>();
+  private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+
+  /**
+   * @param regions the lookup for each region, by label.
+   * @param executor runs the regional lookups.
+   * @param regionTimeout the budget of each region in milliseconds, 0 waits until every region completes.
+   */
+  public MultiRegionLookup(final Map<String, InstancesUtils> regions, final Executor executor, final long regionTimeout) {
+    this.regions = new LinkedHashMap<>(regions);
+    this.executor = executor;
+    this.regionTimeout = regionTimeout;
+  }
+
+  /**
+   * Gets the private ip addresses of the instances matching the filters in all of the regions.
+   *
+   * @param filters the filters to match.
+   * @param pageConsumer receives the addresses of each page as it arrives, from any region.
+   * @return the merged private ip addresses.
+   */
+  public List<String> getPrivateIpAddresses(final List<Filter> filters, final Consumer<List<String>> pageConsumer) {
+    final Map<String, CompletableFuture<List<String>>> lookups = new LinkedHashMap<>();
+    regions.forEach((label, utils) -> lookups.put(label, start(label, utils, filters, pageConsumer)));
+
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(regionTimeout);
+    final Set<String> result = new LinkedHashSet<>();
+    lookups.forEach((label, lookup) -> result.addAll(await(label, lookup, deadline)));
+    return new ArrayList<>(result);
+  }
+
+  /**
+   * @return the duration of the last completed lookup in each region, in milliseconds.
+   */
+  public Map<String, Long> getLatencies() {
+    final Map<String, Long> result = new LinkedHashMap<>();
+    regions.keySet().stream()
+        .filter(latencies::containsKey)
+        .forEach(label -> result.put(label, latencies.get(label)));
+    return result;
+  }
+
+  /**
+   * Starts a lookup in a region, unless the last one is still running.
+   */
+  private CompletableFuture<List<String>> start(
+      final String label,
+      final InstancesUtils utils,
+      final List<Filter> filters,
+      final Consumer<List<String>> pageConsumer) {
+    return inFlight.compute(label, (key, running) -> {
+      if (running != null && !running.isDone()) {
+        return running;
+      }
+      final long start = System.nanoTime();
+      final CompletableFuture<List<String>> lookup =
+          CompletableFuture.supplyAsync(() -> utils.getPrivateIpAddresses(filters, pageConsumer), executor);
+      lookup.thenAccept(addresses -> {
+        latencies.put(label, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        lastAddresses.put(label, addresses);
+      });
+      return lookup;
+    });
+  }
+
+  /**
+   * Waits for the lookup in a region until the deadline.
+   */
+  private List<String> await(final String label, final CompletableFuture<List<String>> lookup, final long deadline) {
+    try {
+      return regionTimeout > 0 ?
+          lookup.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS) :
+          lookup.get();
+    } catch (TimeoutException e) {
+      final List<String> last = lastAddresses.getOrDefault(label, Collections.emptyList());
+      log.warn("member lookup in %s did not complete within %d ms, using its last %d addresses", label, regionTimeout, last.size());
+      return last;
+    } catch (ExecutionException e) {
+      final List<String> last = lastAddresses.getOrDefault(label, Collections.emptyList());
+      log.warn("member lookup in " + label + " failed, using its last " + last.size() + " addresses", e.getCause());
+      return last;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return lastAddresses.getOrDefault(label, Collections.emptyList());
+    }
+  }
+
+  /**
+   * Parses a comma separated list of regions, each optionally followed by '@' and the ARN of a role to assume.
+   *
+   * @param regions the list to parse.
+   * @return the parsed regions.
+   */
+  public static List<Region> parseRegions(final String regions) {
+    return Arrays.stream(regions.split("\\s*,\\s*"))
+        .map(String::trim)
+        .filter(entry -> !entry.isEmpty())
+        .map(entry -> {
+          final int at = entry.indexOf('@');
+          final String region = at < 0 ? entry : entry.substring(0, at).trim();
+          final String roleArn = at < 0 ? null : entry.substring(at + 1).trim();
+          if (region.isEmpty() || (roleArn != null && roleArn.isEmpty())) {
+            throw new IllegalArgumentException("Could not process region '" + entry + "'");
+          }
+          return new Region(region, roleArn);
+        })
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * A region to look members up in, with the role to assume there, if any.
+   */
+  public static class Region {
+    public final String region;
+    public final String roleArn;
+
+    public Region(final String region, final String roleArn) {
+      this.region = region;
+      this.roleArn = roleArn;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof Region && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+      return toString().hashCode();
+    }
+
+    /**
+     * @return the label of the region, REGION or REGION@ROLE_ARN.
+     */
+    @Override
+    public String toString() {
+      return roleArn == null ? region : region + "@" + roleArn;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeNetworkInterfacesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.NetworkInterfacePrivateIpAddress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Finds cluster members by describing the network interfaces that share a subnet or security group with this
+ * instance.  Network interfaces are a much smaller document than instances and include secondary private ips.
+ */
+public class NetworkInterfacesUtils {
+  public static final String SCOPE_SUBNET = "subnet";
+  public static final String SCOPE_SECURITY_GROUP = "security_group";
+
+  private final AmazonEC2 ec2;
+  private final List<Filter> scopeFilters;
+
+  public NetworkInterfacesUtils(final AmazonEC2 ec2, final List<Filter> scopeFilters) {
+    this.ec2 = ec2;
+    this.scopeFilters = scopeFilters;
+  }
+
+  /**
+   * Creates the filters that limit the network interfaces to the ones sharing the scope of this instance.
+   *
+   * @param scope either subnet or security_group.
+   * @param metadata the metadata of this instance.
+   * @return the filters for the scope.
+   * @throws IOException if the scope could not be read from the metadata service.
+   * @throws IllegalArgumentException if the scope is not known.
+   */
+  public static List<Filter> scopeFilters(final String scope, final InstanceMetadata metadata) throws IOException {
+    final List<Filter> filters = new ArrayList<>();
+    filters.add(new Filter("status", Collections.singletonList("in-use")));
+    if (SCOPE_SUBNET.equals(scope)) {
+      filters.add(new Filter("subnet-id", Collections.singletonList(metadata.getSubnetId())));
+    } else if (SCOPE_SECURITY_GROUP.equals(scope)) {
+      filters.add(new Filter("group-id", metadata.getSecurityGroupIds()));
+    } else {
+      throw new IllegalArgumentException("unknown network interface scope '" + scope + "', expected " + SCOPE_SUBNET + " or " + SCOPE_SECURITY_GROUP);
+    }
+    return filters;
+  }
+
+  /**
+   * @return the scope filters used for every lookup.
+   */
+  public List<Filter> getScopeFilters() {
+    return scopeFilters;
+  }
+
+  /**
+   * Gets the primary and secondary private ip addresses of all the network interfaces in scope.
+   *
+   * @param additionalFilters filters to apply in addition to the scope filters.
+   * @return the private ip addresses found.
+   */
+  public List<String> getPrivateIpAddresses(final List<Filter> additionalFilters) {
+    final List<Filter> filters = new ArrayList<>(scopeFilters);
+    filters.addAll(additionalFilters);
+
+    final DescribeNetworkInterfacesRequest request = new DescribeNetworkInterfacesRequest().withFilters(filters);
+    return FlightRecorderEvents.ec2Call(
+        "DescribeNetworkInterfaces",
+        1,
+        () -> ec2.describeNetworkInterfaces(request),
+        described -> described.getNetworkInterfaces().size())
+        .getNetworkInterfaces().stream()
+        .flatMap(networkInterface -> networkInterface.getPrivateIpAddresses().stream())
+        .map(NetworkInterfacePrivateIpAddress::getPrivateIpAddress)
+        .filter(Objects::nonNull)
+        .distinct()
+        .collect(Collectors.toList());
+  }
+}
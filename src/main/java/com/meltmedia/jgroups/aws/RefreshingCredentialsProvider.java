@@ -0,0 +1,224 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the credentials of another provider and refreshes them on a background thread, so the threads making EC2
+ * calls never wait for the metadata service or STS when credentials rotate.  Only the first call waits, if the
+ * credentials could not be loaded when the provider was acquired.  When a refresh fails, the previous credentials are
+ * kept until the next one.
+ *
+ * Providers are shared by all the users in the JVM with the same provider class and refresh interval, and refreshed
+ * by one daemon thread.  Once released by its last user, a provider passes calls through to the provider it wraps, so
+ * a client still holding it never uses stale credentials.
+ */
+public class RefreshingCredentialsProvider implements AWSCredentialsProvider {
+  private static Log log = LogFactory.getLog(AWS_PING.class);
+
+  private static final Map<Key, RefreshingCredentialsProvider> sharedProviders = new HashMap<>();
+  private static ScheduledExecutorService scheduler;
+
+  private final Key key;
+  private final AWSCredentialsProvider delegate;
+  private final AtomicBoolean refreshing = new AtomicBoolean(false);
+  private final AtomicLong failures = new AtomicLong();
+  private volatile AWSCredentials credentials;
+  private volatile long refreshedAt;
+  private volatile boolean released = false;
+  private ScheduledFuture<?> refreshTask;
+  private int references = 0;
+
+  private RefreshingCredentialsProvider(final Key key, final AWSCredentialsProvider delegate) {
+    this.key = key;
+    this.delegate = delegate;
+  }
+
+  /**
+   * Acquires the shared provider for the provider class and refresh interval, creating it and loading its first
+   * credentials if needed.  Providers are loaded without holding the lock on the shared providers, when two threads
+   * race to create the same provider the one registered first is kept.  Every call must be matched with a call to
+   * release.
+   *
+   * @param credentialsProviderClass the class name of the provider, identifying it.
+   * @param refreshInterval the number of milliseconds between refreshes.
+   * @param delegate creates the provider, when it is not already shared.
+   * @return the shared provider.
+   */
+  public static RefreshingCredentialsProvider acquire(
+      final String credentialsProviderClass,
+      final long refreshInterval,
+      final Callable<AWSCredentialsProvider> delegate) throws Exception {
+    final Key key = new Key(credentialsProviderClass, refreshInterval);
+    synchronized (sharedProviders) {
+      final RefreshingCredentialsProvider shared = sharedProviders.get(key);
+      if (shared != null) {
+        shared.references++;
+        return shared;
+      }
+    }
+
+    // create and load outside of the lock, so a slow provider does not hold up users of the other providers.
+    final RefreshingCredentialsProvider created = new RefreshingCredentialsProvider(key, delegate.call());
+    created.reload();
+
+    synchronized (sharedProviders) {
+      final RefreshingCredentialsProvider shared = sharedProviders.get(key);
+      if (shared != null) {
+        // another thread registered a provider in the meantime, ours was never scheduled and is dropped.
+        created.released = true;
+        shared.references++;
+        return shared;
+      }
+      if (scheduler == null) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+          final Thread thread = new Thread(runnable, "AWS_PING-credentials");
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+      created.refreshTask = scheduler.scheduleWithFixedDelay(
+          created::reload, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+      created.references++;
+      sharedProviders.put(key, created);
+      return created;
+    }
+  }
+
+  /**
+   * Releases a provider.  Its refreshes stop when its last user releases it.  Providers that were not acquired are
+   * ignored.
+   */
+  public static void release(final AWSCredentialsProvider provider) {
+    if (!(provider instanceof RefreshingCredentialsProvider)) {
+      return;
+    }
+    final RefreshingCredentialsProvider refreshing = (RefreshingCredentialsProvider) provider;
+    synchronized (sharedProviders) {
+      if (sharedProviders.get(refreshing.key) != refreshing || --refreshing.references > 0) {
+        return;
+      }
+      sharedProviders.remove(refreshing.key);
+      refreshing.released = true;
+      refreshing.refreshTask.cancel(false);
+      if (sharedProviders.isEmpty()) {
+        scheduler.shutdown();
+        scheduler = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the cached credentials, loading them only if none were ever loaded.
+   */
+  @Override
+  public AWSCredentials getCredentials() {
+    if (released) {
+      return delegate.getCredentials();
+    }
+    final AWSCredentials current = credentials;
+    if (current != null) {
+      return current;
+    }
+    synchronized (this) {
+      if (credentials == null) {
+        credentials = delegate.getCredentials();
+        refreshedAt = System.currentTimeMillis();
+      }
+      return credentials;
+    }
+  }
+
+  /**
+   * Asks for a refresh on the refresh thread, without waiting for it.  Released providers refresh the provider they
+   * wrap directly.
+   */
+  @Override
+  public void refresh() {
+    if (released) {
+      delegate.refresh();
+      return;
+    }
+    synchronized (sharedProviders) {
+      if (scheduler != null && refreshTask != null) {
+        scheduler.execute(this::reload);
+      }
+    }
+  }
+
+  /**
+   * Refreshes the credentials of the delegate and caches them, keeping the previous ones if that fails.  Concurrent
+   * reloads are skipped.
+   */
+  void reload() {
+    if (!refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      delegate.refresh();
+      credentials = delegate.getCredentials();
+      refreshedAt = System.currentTimeMillis();
+    } catch (RuntimeException e) {
+      failures.incrementAndGet();
+      log.warn("failed to refresh the AWS credentials, the previous credentials are used until the next refresh", e);
+    } finally {
+      refreshing.set(false);
+    }
+  }
+
+  /**
+   * @return the number of milliseconds since the credentials were last loaded, or -1 if they never were.
+   */
+  public long getAge() {
+    final long at = refreshedAt;
+    return at == 0 ? -1 : System.currentTimeMillis() - at;
+  }
+
+  /**
+   * @return the number of refreshes that failed.
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  private static class Key {
+    private final String credentialsProviderClass;
+    private final long refreshInterval;
+
+    private Key(final String credentialsProviderClass, final long refreshInterval) {
+      this.credentialsProviderClass = credentialsProviderClass;
+      this.refreshInterval = refreshInterval;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return refreshInterval == other.refreshInterval
+          && Objects.equals(credentialsProviderClass, other.credentialsProviderClass);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(credentialsProviderClass, refreshInterval);
+    }
+  }
+}
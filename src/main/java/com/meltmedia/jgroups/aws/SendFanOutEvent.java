@@ -0,0 +1,21 @@
+package com.meltmedia.jgroups.aws;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The discovery requests sent to every port of the probed addresses.
+ */
+@Name("com.meltmedia.jgroups.aws.SendFanOut")
+@Label("Send Fan-Out")
+@Category({"JGroups", "AWS_PING"})
+@Description("Discovery requests sent to every port of the probed addresses")
+final class SendFanOutEvent extends jdk.jfr.Event {
+  @Label("Addresses")
+  int addresses;
+
+  @Label("Messages")
+  int messages;
+}
@@ -0,0 +1,213 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.AvailabilityZone;
+import com.amazonaws.services.ec2.model.DescribeAvailabilityZonesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Splits the DescribeInstances lookup into shards, one for each value of a filter such as availability-zone, and runs
+ * up to parallelism shards at once, so a lookup in a large account takes about as long as its slowest shard.  The
+ * instances of the shards are merged without duplicates.  When the shards are availability zones and no values are
+ * given, they are the zones of the client's region, looked up once with DescribeAvailabilityZones.
+ *
+ * A lookup whose filters already name the shard filter is not split.  If a shard fails, the lookup fails.
+ */
+public class ShardedInstancesUtils extends InstancesUtils {
+  public static final String AVAILABILITY_ZONE_FILTER = "availability-zone";
+
+  private final AmazonEC2 ec2;
+  private final String shardFilter;
+  private final Executor executor;
+  private final int parallelism;
+  private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+  private final List<String> configuredShardValues;
+  private volatile List<String> shardValues;
+
+  /**
+   * @param ec2 the client to use.
+   * @param pageSize the maximum number of instances per page of each shard, 0 lets EC2 decide.
+   * @param statusUtils drops impaired instances from the cluster lookups, or null to keep them.
+   * @param shardFilter the name of the filter the lookup is split by.
+   * @param shardValues the values of the filter, one per shard.  Empty looks the availability zones up.
+   * @param executor runs the shards, along with the calling thread.
+   * @param parallelism the maximum number of shards looked up at once.
+   * @throws IllegalArgumentException if no values are given for a filter other than availability-zone, or the
+   * parallelism is not positive.
+   */
+  public ShardedInstancesUtils(
+      final AmazonEC2 ec2,
+      final int pageSize,
+      final InstanceStatusUtils statusUtils,
+      final String shardFilter,
+      final List<String> shardValues,
+      final Executor executor,
+      final int parallelism) {
+    super(ec2, pageSize, statusUtils);
+    if (shardValues.isEmpty() && !AVAILABILITY_ZONE_FILTER.equals(shardFilter)) {
+      throw new IllegalArgumentException("lookup_shard_values must be set when lookup_shard_filter is not "
+          + AVAILABILITY_ZONE_FILTER);
+    }
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("lookup_shard_parallelism must be positive");
+    }
+    this.ec2 = ec2;
+    this.shardFilter = shardFilter;
+    this.configuredShardValues = new ArrayList<>(shardValues);
+    this.shardValues = shardValues.isEmpty() ? null : new ArrayList<>(shardValues);
+    this.executor = executor;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Gets all the instances matching the filters, one shard at a time on up to parallelism threads.
+   *
+   * @param filters the filters to match.
+   * @param pageConsumer receives the instances of each page as it arrives, from any shard.
+   * @return the merged instances, in shard order.
+   */
+  @Override
+  public List<Instance> getInstances(final List<Filter> filters, final Consumer<List<Instance>> pageConsumer) {
+    if (filters.stream().anyMatch(filter -> shardFilter.equals(filter.getName()))) {
+      return super.getInstances(filters, pageConsumer);
+    }
+    final List<String> shards = getShardValues();
+    if (shards.size() <= 1) {
+      return super.getInstances(filters, pageConsumer);
+    }
+
+    final AtomicReferenceArray<List<Instance>> results = new AtomicReferenceArray<>(shards.size());
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    final Runnable worker = () -> {
+      int shard;
+      while (failure.get() == null && (shard = next.getAndIncrement()) < shards.size()) {
+        try {
+          results.set(shard, lookup(shards.get(shard), filters, pageConsumer));
+        } catch (RuntimeException e) {
+          failure.compareAndSet(null, e);
+        }
+      }
+    };
+
+    // the calling thread works the shards too, so the lookup completes even when the executor is saturated.
+    final List<CompletableFuture<Void>> helpers = new ArrayList<>();
+    try {
+      for (int i = 1; i < Math.min(parallelism, shards.size()); i++) {
+        helpers.add(CompletableFuture.runAsync(worker, executor));
+      }
+    } catch (RejectedExecutionException e) {
+      // the executor is shutting down, the calling thread looks the remaining shards up.
+    }
+    worker.run();
+    CompletableFuture.allOf(helpers.toArray(new CompletableFuture[0])).join();
+
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    final Set<String> seen = new HashSet<>();
+    final List<Instance> merged = new ArrayList<>();
+    for (int i = 0; i < shards.size(); i++) {
+      for (final Instance instance : results.get(i)) {
+        final String id = instance.getInstanceId() != null ? instance.getInstanceId() : instance.getPrivateIpAddress();
+        if (id == null || seen.add(id)) {
+          merged.add(instance);
+        }
+      }
+    }
+    return merged;
+  }
+
+  @Override
+  List<Object> getQuerySettings() {
+    final List<Object> settings = new ArrayList<>(super.getQuerySettings());
+    settings.addAll(Arrays.asList(shardFilter, configuredShardValues, parallelism));
+    return settings;
+  }
+
+  /**
+   * @return the duration of the last lookup of each shard, in milliseconds.
+   */
+  public Map<String, Long> getLatencies() {
+    final Map<String, Long> result = new LinkedHashMap<>();
+    final List<String> shards = shardValues;
+    if (shards != null) {
+      shards.stream()
+          .filter(latencies::containsKey)
+          .forEach(shard -> result.put(shard, latencies.get(shard)));
+    }
+    return result;
+  }
+
+  /**
+   * Parses a comma separated list of shard values.
+   *
+   * @param values the list to parse, or null.
+   * @return the values, without blanks and duplicates.
+   */
+  public static List<String> parseValues(final String values) {
+    if (values == null) {
+      return Collections.emptyList();
+    }
+    return Arrays.stream(values.split(","))
+        .map(String::trim)
+        .filter(value -> !value.isEmpty())
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  private List<Instance> lookup(
+      final String shard,
+      final List<Filter> filters,
+      final Consumer<List<Instance>> pageConsumer) {
+    final List<Filter> shardFilters = new ArrayList<>(filters);
+    shardFilters.add(new Filter(shardFilter, Collections.singletonList(shard)));
+    final long start = System.nanoTime();
+    final List<Instance> instances = super.getInstances(shardFilters, pageConsumer);
+    latencies.put(shard, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return instances;
+  }
+
+  /**
+   * @return the configured shard values, or the availability zones of the region, which are looked up the first time
+   * and again after a failed lookup.
+   */
+  private List<String> getShardValues() {
+    final List<String> shards = shardValues;
+    if (shards != null) {
+      return shards;
+    }
+    synchronized (this) {
+      if (shardValues == null) {
+        shardValues = ec2.describeAvailabilityZones(new DescribeAvailabilityZonesRequest())
+            .getAvailabilityZones().stream()
+            .map(AvailabilityZone::getZoneName)
+            .filter(Objects::nonNull)
+            .sorted()
+            .collect(Collectors.toList());
+      }
+      return shardValues;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.meltmedia.jgroups.aws;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Spreads the first discovery round of instances launched together, so a mass scale-out does not hit EC2's request
+ * throttling and flood the new members with pings in the same second.  The delay is derived from the instance id and
+ * launch time, so it is stable for an instance and uniformly spread across a fleet, without any coordination.
+ */
+public class StartupJitter {
+  private StartupJitter() {
+  }
+
+  /**
+   * Computes the delay of the first discovery round.
+   *
+   * @param identity the identity of this instance.
+   * @param maxJitter the maximum delay in milliseconds, 0 disables the delay.
+   * @param window the number of milliseconds after its launch that an instance is delayed, 0 delays it regardless of
+   * its launch time.
+   * @param joinTimeout the join timeout of GMS in milliseconds, capping the delay, or 0 if unknown.
+   * @param now the current time in epoch milliseconds.
+   * @return the delay in milliseconds.
+   */
+  public static long delay(
+      final InstanceIdentity identity,
+      final long maxJitter,
+      final long window,
+      final long joinTimeout,
+      final long now) {
+    if (maxJitter <= 0) {
+      return 0;
+    }
+    final long launchTime = launchTime(identity);
+    if (window > 0 && launchTime > 0 && now - launchTime > window) {
+      return 0; // not part of a scale-out, a restart on an older instance.
+    }
+    final long bound = joinTimeout > 0 ? Math.min(maxJitter, joinTimeout) : maxJitter;
+    return Math.floorMod(mix(identity.instanceId.hashCode() * 31L + launchTime), bound + 1);
+  }
+
+  /**
+   * @return the launch time of the instance in epoch milliseconds, or 0 if it is unknown.
+   */
+  private static long launchTime(final InstanceIdentity identity) {
+    if (identity.pendingTime == null) {
+      return 0;
+    }
+    try {
+      return Instant.parse(identity.pendingTime).toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Scrambles the bits of a seed, so instance ids that differ in one character land far apart.
+   */
+  private static long mix(long seed) {
+    seed = (seed ^ (seed >>> 30)) * 0xbf58476d1ce4e5b9L;
+    seed = (seed ^ (seed >>> 27)) * 0x94d049bb133111ebL;
+    return seed ^ (seed >>> 31);
+  }
+}
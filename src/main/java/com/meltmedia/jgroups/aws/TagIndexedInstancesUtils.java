@@ -0,0 +1,281 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Tag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Answers the cluster lookups of all the AWS_PING protocols in the JVM that use the same EC2 client, tag names and
+ * filters from one shared snapshot of the fleet.  The snapshot is looked up with a tag-key filter, rather than the
+ * tag values of each cluster, and indexed by the values of the tags, so clusters told apart by their tag values
+ * (cluster=a, cluster=b, ...) make one DescribeInstances query between them instead of one each.  A snapshot younger
+ * than the max age is reused, and lookups that find a query in flight wait for it.
+ *
+ * Only lookups with the same query settings (page size, status checks and shards) share a snapshot, and each query
+ * is made with the wrapped lookup of the protocol that makes it, so a snapshot never relies on the executor or status
+ * cache of a protocol that has stopped.
+ *
+ * Only tag filters with one value and no wildcards are indexed.  Other tag filters, such as tag:Name=web-*, are passed
+ * to EC2 along with the other filters.  Lookups without indexed tag filters, and lookups of given instance ids, are
+ * passed to the wrapped lookup.
+ */
+public class TagIndexedInstancesUtils extends InstancesUtils {
+  private static final String TAG_FILTER_PREFIX = "tag:";
+  private static final String TAG_KEY_FILTER = "tag-key";
+  private static final Map<IndexKey, SharedIndex> sharedIndexes = new HashMap<>();
+
+  private final AmazonEC2 ec2;
+  private final InstancesUtils instances;
+  private final long maxAge;
+  private final Map<IndexKey, SharedIndex> acquired = new ConcurrentHashMap<>();
+
+  /**
+   * @param ec2 the client of the wrapped lookup, which identifies the snapshots it can share.
+   * @param instances the lookup that queries the snapshots for this protocol, with its paging, sharding and status
+   * checks.
+   * @param maxAge the number of milliseconds a snapshot is reused, 0 only shares queries in flight.
+   */
+  public TagIndexedInstancesUtils(final AmazonEC2 ec2, final InstancesUtils instances, final long maxAge) {
+    super(ec2, 0);
+    this.ec2 = ec2;
+    this.instances = instances;
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * Gets the private ip addresses of the instances matching the filters from the shared snapshot for the tag names
+   * and the other filters.
+   *
+   * @param filters the filters to match.
+   * @param pageConsumer receives the matching addresses of each page, when this lookup queries the snapshot.
+   * @return the private ip addresses found.
+   */
+  @Override
+  public List<String> getPrivateIpAddresses(final List<Filter> filters, final Consumer<List<String>> pageConsumer) {
+    final Map<String, String> tags = new TreeMap<>();
+    final List<Filter> others = new ArrayList<>();
+    for (final Filter filter : filters) {
+      if (filter.getName().startsWith(TAG_FILTER_PREFIX)
+          && filter.getValues().size() == 1
+          && isExact(filter.getValues().get(0))) {
+        tags.put(filter.getName().substring(TAG_FILTER_PREFIX.length()), filter.getValues().get(0));
+      } else {
+        others.add(filter);
+      }
+    }
+    if (tags.isEmpty()) {
+      return instances.getPrivateIpAddresses(filters, pageConsumer);
+    }
+    final IndexKey key = new IndexKey(ec2, instances.getQuerySettings(), new ArrayList<>(tags.keySet()), others);
+    return acquired.computeIfAbsent(key, this::acquire)
+        .getPrivateIpAddresses(new ArrayList<>(tags.values()), maxAge, instances, pageConsumer);
+  }
+
+  /**
+   * @return true if EC2 matches the filter value exactly, without wildcards or escapes.
+   */
+  private static boolean isExact(final String value) {
+    return value.indexOf('*') < 0 && value.indexOf('?') < 0 && value.indexOf('\\') < 0;
+  }
+
+  @Override
+  public List<Instance> getInstances(final List<Filter> filters, final Consumer<List<Instance>> pageConsumer) {
+    return instances.getInstances(filters, pageConsumer);
+  }
+
+  @Override
+  public List<String> getPrivateIpAddresses(final Collection<String> instanceIds, final List<Filter> filters) {
+    return instances.getPrivateIpAddresses(instanceIds, filters);
+  }
+
+  /**
+   * Releases the snapshots this lookup shares.  A snapshot is dropped when its last user releases it.
+   */
+  public void release() {
+    synchronized (sharedIndexes) {
+      for (final SharedIndex index : acquired.values()) {
+        if (--index.references == 0) {
+          sharedIndexes.remove(index.key, index);
+        }
+      }
+    }
+    acquired.clear();
+  }
+
+  /**
+   * @return the number of DescribeInstances queries made for the snapshots this lookup shares, by any of their users.
+   */
+  public long getQueries() {
+    return acquired.values().stream().mapToLong(index -> index.queries.get()).sum();
+  }
+
+  /**
+   * @return the number of lookups answered by the snapshots this lookup shares, for any of their users.
+   */
+  public long getLookups() {
+    return acquired.values().stream().mapToLong(index -> index.lookups.get()).sum();
+  }
+
+  private SharedIndex acquire(final IndexKey key) {
+    synchronized (sharedIndexes) {
+      final SharedIndex index = sharedIndexes.computeIfAbsent(key, k -> new SharedIndex(k));
+      index.references++;
+      return index;
+    }
+  }
+
+  /**
+   * The snapshot of the instances carrying a set of tag names, indexed by the values of those tags.
+   */
+  private static class SharedIndex {
+    private final IndexKey key;
+    private final List<Filter> queryFilters;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private int references = 0;
+    private Map<List<String>, List<String>> snapshot;
+    private long snapshotAt;
+    private CompletableFuture<Map<List<String>, List<String>>> inFlight;
+
+    private SharedIndex(final IndexKey key) {
+      this.key = key;
+      this.queryFilters = new ArrayList<>(key.filters);
+      queryFilters.add(new Filter(TAG_KEY_FILTER, key.tagNames));
+    }
+
+    private List<String> getPrivateIpAddresses(
+        final List<String> tagValues,
+        final long maxAge,
+        final InstancesUtils instances,
+        final Consumer<List<String>> pageConsumer) {
+      lookups.incrementAndGet();
+      final CompletableFuture<Map<List<String>, List<String>>> query;
+      final boolean querying;
+      synchronized (this) {
+        if (snapshot != null && System.nanoTime() - snapshotAt < TimeUnit.MILLISECONDS.toNanos(maxAge)) {
+          return snapshot.getOrDefault(tagValues, Collections.emptyList());
+        }
+        querying = inFlight == null;
+        if (querying) {
+          inFlight = new CompletableFuture<>();
+        }
+        query = inFlight;
+      }
+      if (!querying) {
+        try {
+          return query.join().getOrDefault(tagValues, Collections.emptyList());
+        } catch (CompletionException e) {
+          throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+      }
+
+      try {
+        queries.incrementAndGet();
+        final Map<List<String>, List<String>> index = index(instances.getInstances(
+            queryFilters,
+            page -> pageConsumer.accept(InstancesUtils.privateIpAddresses(page.stream()
+                .filter(instance -> tagValues.equals(tagValues(instance)))
+                .collect(Collectors.toList())))));
+        synchronized (this) {
+          snapshot = index;
+          snapshotAt = System.nanoTime();
+          inFlight = null;
+        }
+        query.complete(index);
+        return index.getOrDefault(tagValues, Collections.emptyList());
+      } catch (RuntimeException e) {
+        synchronized (this) {
+          inFlight = null;
+        }
+        query.completeExceptionally(e);
+        throw e;
+      }
+    }
+
+    private Map<List<String>, List<String>> index(final List<Instance> found) {
+      final Map<List<String>, List<String>> index = new HashMap<>();
+      for (final Instance instance : found) {
+        final List<String> values = tagValues(instance);
+        if (values != null && instance.getPrivateIpAddress() != null) {
+          index.computeIfAbsent(values, k -> new ArrayList<>()).add(instance.getPrivateIpAddress());
+        }
+      }
+      index.replaceAll((values, addresses) -> Collections.unmodifiableList(addresses));
+      return index;
+    }
+
+    /**
+     * @return the values of the tag names on the instance, in the order of the names, or null if one is missing.
+     */
+    private List<String> tagValues(final Instance instance) {
+      final List<String> values = new ArrayList<>(key.tagNames.size());
+      for (final String name : key.tagNames) {
+        final String value = instance.getTags().stream()
+            .filter(tag -> name.equals(tag.getKey()))
+            .map(Tag::getValue)
+            .findFirst()
+            .orElse(null);
+        if (value == null) {
+          return null;
+        }
+        values.add(value);
+      }
+      return values;
+    }
+  }
+
+  private static class IndexKey {
+    private final AmazonEC2 ec2;
+    private final List<Object> settings;
+    private final List<String> tagNames;
+    private final List<Filter> filters;
+
+    private IndexKey(
+        final AmazonEC2 ec2,
+        final List<Object> settings,
+        final List<String> tagNames,
+        final List<Filter> filters) {
+      this.ec2 = ec2;
+      this.settings = settings;
+      this.tagNames = tagNames;
+      this.filters = filters;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof IndexKey)) {
+        return false;
+      }
+      final IndexKey other = (IndexKey) o;
+      return ec2 == other.ec2
+          && settings.equals(other.settings)
+          && tagNames.equals(other.tagNames)
+          && filters.equals(other.filters);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(ec2), settings, tagNames, filters);
+    }
+  }
+}
@@ -1,10 +1,12 @@
 package com.meltmedia.jgroups.aws;
 
 import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeTagsRequest;
+import com.amazonaws.services.ec2.model.DescribeTagsResult;
+import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Tag;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -17,6 +19,7 @@ public class TagsUtils {
   private final InstanceIdentity instanceIdentity;
   @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
   private final Optional<List<String>> awsTagNames;
+  private volatile List<Filter> instanceTagFilters;
 
   public TagsUtils(final AmazonEC2 ec2, final InstanceIdentity instanceIdentity, final String configuredTags) {
     this.ec2 = ec2;
@@ -35,21 +38,45 @@ public class TagsUtils {
   }
 
   /**
-   * Returns all of the tags defined on the EC2 current instance
-   * instanceId.
+   * Returns the tags defined on the current EC2 instance, using DescribeTags.  When tag names are configured, only
+   * those tags are returned.
    *
    * @return a list of the Tag objects that were found on the instance.
    */
   public List<Tag> getInstanceTags() {
-    final DescribeInstancesResult response = ec2
-        .describeInstances(new DescribeInstancesRequest()
-            .withInstanceIds(Collections.singletonList(instanceIdentity.instanceId)));
+    final List<Filter> filters = new ArrayList<>();
+    filters.add(new Filter("resource-id", Collections.singletonList(instanceIdentity.instanceId)));
+    awsTagNames.ifPresent(names -> filters.add(new Filter("key", names)));
 
-    return response.getReservations().stream()
-        .flatMap(reservation -> reservation.getInstances().stream())
-        .flatMap(instance -> instance.getTags().stream())
-        .collect(Collectors.toList());
+    final List<Tag> tags = new ArrayList<>();
+    String nextToken = null;
+    int pageNumber = 0;
+    do {
+      final DescribeTagsRequest request = new DescribeTagsRequest()
+          .withFilters(filters)
+          .withNextToken(nextToken);
+      final DescribeTagsResult response = FlightRecorderEvents.ec2Call(
+          "DescribeTags",
+          ++pageNumber,
+          () -> ec2.describeTags(request),
+          described -> described.getTags().size());
+      response.getTags().forEach(description -> tags.add(new Tag(description.getKey(), description.getValue())));
+      nextToken = response.getNextToken();
+    } while (nextToken != null && !nextToken.isEmpty());
+    return tags;
+  }
 
+  /**
+   * Returns a filter (tag:key=value) for each configured tag on the current instance.  The tags are looked up once,
+   * by validateTags or the first call.
+   *
+   * @return a list of filters for instances that share the configured tags with this instance.
+   */
+  public List<Filter> getInstanceTagFilters() {
+    if (instanceTagFilters == null) {
+      instanceTagFilters = toFilters(getInstanceTags());
+    }
+    return instanceTagFilters;
   }
 
   /**
@@ -59,7 +86,13 @@ public class TagsUtils {
    * @throws IllegalStateException
    */
   public TagsUtils validateTags() {
-    final List<String> instanceTags = getInstanceTags().stream()
+    if (!awsTagNames.isPresent()) {
+      instanceTagFilters = Collections.emptyList();
+      return this;
+    }
+
+    final List<Tag> tags = getInstanceTags();
+    final List<String> instanceTags = tags.stream()
         .map(Tag::getKey)
         .collect(Collectors.toList());
 
@@ -71,9 +104,21 @@ public class TagsUtils {
       throw new IllegalStateException("expected instance tag(s) missing: " + missingTags.stream().collect(Collectors.joining(", ")));
     }
 
+    instanceTagFilters = toFilters(tags);
     return this;
   }
 
+  /**
+   * Maps the configured tags found on the instance to tag filters.
+   */
+  private List<Filter> toFilters(final List<Tag> tags) {
+    final List<String> names = awsTagNames.orElse(Collections.emptyList());
+    return Collections.unmodifiableList(tags.stream()
+        .filter(tag -> names.contains(tag.getKey()))
+        .map(tag -> new Filter("tag:" + tag.getKey(), Collections.singletonList(tag.getValue())))
+        .collect(Collectors.toList()));
+  }
+
   /**
    * Parses a comma separated list of tag names.
    *
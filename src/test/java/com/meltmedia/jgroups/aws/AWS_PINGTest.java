@@ -0,0 +1,242 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.internal.StaticCredentialsProvider;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.AvailabilityZone;
+import com.amazonaws.services.ec2.model.DescribeAvailabilityZonesRequest;
+import com.amazonaws.services.ec2.model.DescribeAvailabilityZonesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeTagsRequest;
+import com.amazonaws.services.ec2.model.DescribeTagsResult;
+import org.apache.http.client.HttpClient;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.TCP;
+import org.jgroups.protocols.pbcast.GMS;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the init stages of AWS_PING with a substituted identity and EC2 client, failing each stage in turn.
+ */
+public class AWS_PINGTest {
+  private static final String CREDENTIALS = "aws-ping-test-credentials";
+  private static final long REFRESH_INTERVAL = 60000;
+  private static final InstanceIdentity IDENTITY =
+      new InstanceIdentity("us-west-2a", "127.0.0.1", "i-1", "m5.large", "ami-1", "x86_64", "us-west-2");
+
+  static {
+    CredentialsProviderFactory.register(
+        CREDENTIALS,
+        () -> new StaticCredentialsProvider(new BasicAWSCredentials("key", "secret")));
+  }
+
+  @Test
+  public void clientIsCreatedWithTheIdentityAndCredentials() throws Exception {
+    final TestPing ping = new TestPing(IDENTITY, ec2());
+    final JChannel channel = channel(ping);
+    try {
+      assertEquals(1, ping.clients.size());
+      assertEquals("us-west-2", ping.region);
+      assertTrue(ping.credentials instanceof RefreshingCredentialsProvider);
+      verify(ping.ec2, never()).shutdown();
+    } finally {
+      channel.close();
+    }
+    verify(ping.ec2).shutdown();
+    assertCredentialsReleased();
+  }
+
+  @Test
+  public void identityFailureReleasesTheCredentials() throws Exception {
+    final TestPing ping = new TestPing(null, ec2());
+    assertInitFails(ping, IOException.class);
+
+    assertEquals(0, ping.clients.size());
+    assertCredentialsReleased();
+  }
+
+  @Test
+  public void credentialsFailureCreatesNoClient() throws Exception {
+    final TestPing ping = new TestPing(IDENTITY, ec2());
+    ping.credentials_provider_class = "com.example.MissingCredentialsProvider";
+    assertInitFails(ping, Exception.class);
+
+    assertEquals(0, ping.clients.size());
+  }
+
+  @Test
+  public void clientFailureReleasesTheCredentials() throws Exception {
+    final TestPing ping = new TestPing(IDENTITY, null);
+    assertInitFails(ping, IllegalStateException.class);
+
+    assertEquals(1, ping.clients.size());
+    assertCredentialsReleased();
+  }
+
+  @Test
+  public void tagValidationFailureReleasesTheClientAndCredentials() throws Exception {
+    final AmazonEC2 ec2 = ec2();
+    when(ec2.describeTags(any(DescribeTagsRequest.class))).thenReturn(new DescribeTagsResult());
+    final TestPing ping = new TestPing(IDENTITY, ec2);
+    ping.tags = "cluster";
+    assertInitFails(ping, IllegalStateException.class);
+
+    verify(ec2, timeout(5000)).shutdown();
+    assertCredentialsReleased();
+  }
+
+  @Test
+  public void listedZonesOnlyShardTheHomeRegion() throws Exception {
+    final AmazonEC2 home = ec2();
+    final AmazonEC2 other = ec2();
+    when(other.describeAvailabilityZones(any(DescribeAvailabilityZonesRequest.class))).thenReturn(
+        new DescribeAvailabilityZonesResult().withAvailabilityZones(new AvailabilityZone().withZoneName("eu-west-1a")));
+    final TestPing ping = new TestPing(IDENTITY, home);
+    ping.regionalEc2.put("eu-west-1", other);
+    ping.regions = "eu-west-1";
+    ping.lookup_shard_filter = ShardedInstancesUtils.AVAILABILITY_ZONE_FILTER;
+    ping.lookup_shard_values = "us-west-2a,us-west-2b";
+    final JChannel channel = channel(ping);
+    try {
+      channel.connect("aws-ping-test");
+
+      final ArgumentCaptor<DescribeInstancesRequest> otherRequests = ArgumentCaptor.forClass(DescribeInstancesRequest.class);
+      verify(other, timeout(5000).atLeastOnce()).describeInstances(otherRequests.capture());
+      assertEquals(Collections.singletonList("eu-west-1a"), zones(otherRequests.getValue()));
+
+      final ArgumentCaptor<DescribeInstancesRequest> homeRequests = ArgumentCaptor.forClass(DescribeInstancesRequest.class);
+      verify(home, timeout(5000).atLeast(2)).describeInstances(homeRequests.capture());
+      assertTrue(homeRequests.getAllValues().stream()
+          .allMatch(request -> zones(request).equals(Collections.singletonList("us-west-2a"))
+              || zones(request).equals(Collections.singletonList("us-west-2b"))));
+      verify(home, never()).describeAvailabilityZones(any(DescribeAvailabilityZonesRequest.class));
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static List<String> zones(final DescribeInstancesRequest request) {
+    return request.getFilters().stream()
+        .filter(filter -> ShardedInstancesUtils.AVAILABILITY_ZONE_FILTER.equals(filter.getName()))
+        .flatMap(filter -> filter.getValues().stream())
+        .collect(Collectors.toList());
+  }
+
+  private static void assertInitFails(final TestPing ping, final Class<? extends Exception> expected) {
+    try {
+      channel(ping).close();
+      fail("init did not fail");
+    } catch (Exception e) {
+      Throwable cause = e;
+      while (cause != null && !expected.isInstance(cause)) {
+        cause = cause.getCause();
+      }
+      assertTrue("unexpected failure " + e, cause != null);
+    }
+  }
+
+  /**
+   * Waits for the shared credentials to be released, which is when acquiring them creates a new provider.
+   */
+  private static void assertCredentialsReleased() throws Exception {
+    final AtomicLong created = new AtomicLong();
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    do {
+      RefreshingCredentialsProvider.release(RefreshingCredentialsProvider.acquire(CREDENTIALS, REFRESH_INTERVAL, () -> {
+        created.incrementAndGet();
+        return new StaticCredentialsProvider(new BasicAWSCredentials("key", "secret"));
+      }));
+      if (created.get() > 0) {
+        return;
+      }
+      Thread.sleep(10);
+    } while (System.nanoTime() < deadline);
+    fail("the credentials were not released");
+  }
+
+  private static AmazonEC2 ec2() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(new DescribeInstancesResult());
+    return ec2;
+  }
+
+  private static JChannel channel(final TestPing ping) throws Exception {
+    ping.port_range = 0;
+
+    final TCP tcp = new TCP();
+    tcp.setValue("bind_addr", InetAddress.getLoopbackAddress());
+    tcp.setValue("port_range", 0);
+
+    final GMS gms = new GMS();
+    gms.setValue("print_local_addr", false);
+
+    return new JChannel(tcp, ping, gms);
+  }
+
+  /**
+   * AWS_PING with a given identity and EC2 client, failing the identity stage when the identity is null and the
+   * client stage when the client is null.  Records the credentials the client was created with.  The clients of the
+   * additional regions are looked up in regionalEc2.
+   */
+  private static class TestPing extends AWS_PING {
+    private final InstanceIdentity identity;
+    private final AmazonEC2 ec2;
+    private final Map<String, AmazonEC2> regionalEc2 = new ConcurrentHashMap<>();
+    private final List<String> clients = new CopyOnWriteArrayList<>();
+    private volatile String region;
+    private volatile AWSCredentialsProvider credentials;
+
+    private TestPing(final InstanceIdentity identity, final AmazonEC2 ec2) {
+      this.identity = identity;
+      this.ec2 = ec2;
+      this.credentials_provider_class = CREDENTIALS;
+      this.credentials_refresh_interval = REFRESH_INTERVAL;
+    }
+
+    @Override
+    protected InstanceIdentity getInstanceIdentity(final HttpClient client) throws IOException {
+      if (identity == null) {
+        throw new IOException("no instance identity");
+      }
+      return identity;
+    }
+
+    @Override
+    protected AmazonEC2 createEc2Client(final String region, final AWSCredentialsProvider credentials) {
+      clients.add(region);
+      if (regionalEc2.containsKey(region)) {
+        return regionalEc2.get(region);
+      }
+      this.region = region;
+      this.credentials = credentials;
+      if (ec2 == null) {
+        throw new IllegalStateException("no EC2 client");
+      }
+      return ec2;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.meltmedia.jgroups.aws;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveLookupIntervalTest {
+  private static final List<String> FLEET = Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3");
+
+  @Test
+  public void stableFleetBacksOff() {
+    final AdaptiveLookupInterval interval = new AdaptiveLookupInterval(1000, 10000);
+    assertEquals(1000, interval.getInterval());
+
+    long now = 0;
+    interval.record(FLEET, now);
+    assertEquals(1000, interval.getInterval());
+    for (final long expected : new long[]{2000, 4000, 8000, 10000, 10000}) {
+      now += TimeUnit.MILLISECONDS.toNanos(interval.getInterval());
+      interval.record(FLEET, now);
+      assertEquals(expected, interval.getInterval());
+    }
+    assertEquals(0, interval.getChanges());
+    assertEquals(0, interval.getChurnRate(), 0);
+  }
+
+  @Test
+  public void churnTightensTheInterval() {
+    final AdaptiveLookupInterval interval = new AdaptiveLookupInterval(1000, 10000);
+    long now = 0;
+    interval.record(FLEET, now);
+    for (int i = 0; i < 4; i++) {
+      now += TimeUnit.SECONDS.toNanos(10);
+      interval.record(FLEET, now);
+    }
+    assertEquals(10000, interval.getInterval());
+
+    now += TimeUnit.SECONDS.toNanos(10);
+    interval.record(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.4"), now);
+
+    assertEquals(1000, interval.getInterval());
+    assertEquals(2, interval.getChanges());
+    assertTrue(interval.getChurnRate() > 0);
+  }
+
+  @Test
+  public void churnRateDecaysWhileStable() {
+    final AdaptiveLookupInterval interval = new AdaptiveLookupInterval(1000, 60000);
+    long now = 0;
+    interval.record(FLEET, now);
+    now += TimeUnit.MINUTES.toNanos(1);
+    interval.record(Arrays.asList("10.0.0.1"), now);
+    final double afterChange = interval.getChurnRate();
+
+    now += TimeUnit.MINUTES.toNanos(5);
+    interval.record(Arrays.asList("10.0.0.1"), now);
+
+    assertTrue(afterChange > 0);
+    assertTrue(interval.getChurnRate() < afterChange / 2);
+  }
+
+  @Test
+  public void invalidBoundsAreRejected() {
+    assertInvalid(() -> new AdaptiveLookupInterval(0, 1000));
+    assertInvalid(() -> new AdaptiveLookupInterval(2000, 1000));
+  }
+
+  private static void assertInvalid(final Runnable create) {
+    try {
+      create.run();
+      fail("invalid bounds were accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
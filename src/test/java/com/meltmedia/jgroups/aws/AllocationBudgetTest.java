@@ -0,0 +1,106 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.model.Filter;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fails when a discovery round allocates more than its budget of bytes per instance, so allocation regressions are
+ * caught like functional ones.  The bytes are measured with the thread allocation counter of the HotSpot
+ * ThreadMXBean, after warming up against a primed EC2 fleet, and averaged over several rounds.  The budgets depend on
+ * the JVM and the SDK version, so the test is skipped unless run with -Daws.ping.allocation=true:
+ *
+ * <pre>
+ * mvn test -Dtest=AllocationBudgetTest -Daws.ping.allocation=true
+ * </pre>
+ *
+ * The budgets can be set with -Daws.ping.allocation.lookup.budget and -Daws.ping.allocation.expand.budget, in bytes
+ * per instance.
+ */
+public class AllocationBudgetTest {
+  private static final int[] FLEET_SIZES = {100, 1000};
+  private static final int WARM_UP_ROUNDS = 20;
+  private static final int MEASURED_ROUNDS = 10;
+  private static final long LOOKUP_BUDGET = Long.getLong("aws.ping.allocation.lookup.budget", 512);
+  private static final long EXPAND_BUDGET = Long.getLong("aws.ping.allocation.expand.budget", 3072);
+
+  private com.sun.management.ThreadMXBean threads;
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue("set -Daws.ping.allocation=true to check the allocation budgets",
+        Boolean.getBoolean("aws.ping.allocation"));
+    final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue("thread allocation counters are not supported",
+        bean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+    threads = (com.sun.management.ThreadMXBean) bean;
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Test
+  public void lookupRoundStaysWithinBudget() {
+    for (final int size : FLEET_SIZES) {
+      final AtomicLong calls = new AtomicLong();
+      final InstancesUtils instancesUtils = new InstancesUtils(Mocks.fleetEc2(Mocks.fleet(size), calls), 0);
+      final List<Filter> filters = Collections.singletonList(
+          new Filter("instance-state-name", Collections.singletonList("running")));
+      final AddressCache addressCache = new AddressCache();
+      // runs the lookups on this thread, so their allocations are counted.
+      final BackgroundLookup lookup = new BackgroundLookup(
+          () -> instancesUtils.getPrivateIpAddresses(filters, addressCache::add),
+          addressCache,
+          Runnable::run,
+          late -> {});
+
+      final long perInstance = bytesPerInstance(size, () -> lookup.get(0));
+
+      assertEquals(WARM_UP_ROUNDS + MEASURED_ROUNDS, calls.get());
+      assertEquals(size, lookup.get(0).size());
+      assertWithinBudget("lookup round", size, perInstance, LOOKUP_BUDGET);
+    }
+  }
+
+  @Test
+  public void expandClusterMemberPortsStaysWithinBudget() {
+    final AWS_PING defaults = new AWS_PING();
+    final IPAddressUtils ipAddressUtils = new IPAddressUtils(defaults.port_number, defaults.port_range);
+    for (final int size : FLEET_SIZES) {
+      final List<String> fleet = Mocks.fleet(size);
+
+      final long perInstance = bytesPerInstance(size, () -> ipAddressUtils.expandClusterMemberPorts(fleet));
+
+      assertWithinBudget("expandClusterMemberPorts", size, perInstance, EXPAND_BUDGET);
+    }
+  }
+
+  /**
+   * Warms the round up, then measures the average bytes it allocates per instance.
+   */
+  private long bytesPerInstance(final int size, final Runnable round) {
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      round.run();
+    }
+    final long thread = Thread.currentThread().getId();
+    final long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < MEASURED_ROUNDS; i++) {
+      round.run();
+    }
+    final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+    return allocated / MEASURED_ROUNDS / size;
+  }
+
+  private static void assertWithinBudget(final String name, final int size, final long perInstance, final long budget) {
+    assertTrue(String.format("%s allocated %d bytes per instance for %d instances, over the budget of %d",
+        name, perInstance, size, budget), perInstance <= budget);
+  }
+}
@@ -0,0 +1,147 @@
+package com.meltmedia.jgroups.aws;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class BackgroundLookupTest {
+
+  @Test
+  public void returnsLookupWithinBudget() {
+    final AddressCache cache = new AddressCache();
+    final BackgroundLookup lookup =
+        new BackgroundLookup(() -> Arrays.asList("10.0.0.1", "10.0.0.2"), cache, Runnable::run, late -> {});
+
+    assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2"), lookup.get(1000));
+    assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2"), cache.getAddresses());
+  }
+
+  @Test
+  public void usesPartialResultsWhenBudgetRunsOut() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final AddressCache cache = new AddressCache();
+      final CountDownLatch release = new CountDownLatch(1);
+      final CompletableFuture<List<String>> late = new CompletableFuture<>();
+      final BackgroundLookup lookup = new BackgroundLookup(() -> {
+        cache.add(Collections.singletonList("10.0.0.1")); // first page
+        await(release);
+        return Arrays.asList("10.0.0.1", "10.0.0.2");
+      }, cache, executor, late::complete);
+
+      assertEquals(Collections.singletonList("10.0.0.1"), lookup.get(100));
+
+      release.countDown();
+      assertEquals(Collections.singletonList("10.0.0.2"), late.get(5, TimeUnit.SECONDS));
+      assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2"), cache.getAddresses());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void usesCacheWhenLookupFails() {
+    final AddressCache cache = new AddressCache();
+    cache.refresh(Collections.singletonList("10.0.0.1"));
+    final BackgroundLookup lookup = new BackgroundLookup(() -> {
+      throw new IllegalStateException("throttled");
+    }, cache, Runnable::run, late -> {});
+
+    assertEquals(Collections.singletonList("10.0.0.1"), lookup.get(1000));
+  }
+
+  @Test
+  public void sharesTheLookupInFlight() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final AtomicInteger lookups = new AtomicInteger();
+      final CountDownLatch release = new CountDownLatch(1);
+      final BackgroundLookup lookup = new BackgroundLookup(() -> {
+        lookups.incrementAndGet();
+        await(release);
+        return Collections.emptyList();
+      }, new AddressCache(), executor, late -> {});
+
+      final CompletableFuture<List<String>> first = lookup.start();
+      final CompletableFuture<List<String>> second = lookup.start();
+      release.countDown();
+      first.get(5, TimeUnit.SECONDS);
+      second.get(5, TimeUnit.SECONDS);
+
+      assertEquals(1, lookups.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void restartedLookupsBeginAfterTheLookupInFlight() throws Exception {
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      final AtomicInteger lookups = new AtomicInteger();
+      final CountDownLatch release = new CountDownLatch(1);
+      final BackgroundLookup lookup = new BackgroundLookup(() -> {
+        if (lookups.incrementAndGet() == 1) {
+          await(release);
+          return Collections.singletonList("10.0.0.1");
+        }
+        return Collections.singletonList("10.0.0.2");
+      }, new AddressCache(), executor, late -> {});
+
+      final CompletableFuture<List<String>> stale = lookup.start();
+      Thread.sleep(50);
+      final CompletableFuture<List<String>> fresh = lookup.restart();
+      assertEquals(fresh, lookup.restart());
+      release.countDown();
+
+      assertEquals(Collections.singletonList("10.0.0.1"), stale.get(5, TimeUnit.SECONDS));
+      assertEquals(Collections.singletonList("10.0.0.2"), fresh.get(5, TimeUnit.SECONDS));
+      assertEquals(2, lookups.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void lateAddressesAreDeliveredOncePerLookup() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final CountDownLatch release = new CountDownLatch(1);
+      final List<List<String>> late = new CopyOnWriteArrayList<>();
+      final BackgroundLookup lookup = new BackgroundLookup(() -> {
+        await(release);
+        return Collections.singletonList("10.0.0.1");
+      }, new AddressCache(), executor, late::add);
+
+      lookup.get(50);
+      lookup.get(50);
+      lookup.get(50);
+      release.countDown();
+      lookup.start().get(5, TimeUnit.SECONDS);
+      executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+
+      assertEquals(Collections.singletonList(Collections.singletonList("10.0.0.1")), late);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.ClientConfiguration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EC2ClientProfileTest {
+
+  @Test
+  public void profileIsAppliedToClientConfiguration() {
+    final ClientConfiguration configuration =
+        new EC2ClientProfile(1000, 2000, 3000, 60000, true, 10, true, 1).toClientConfiguration();
+
+    assertEquals(1000, configuration.getConnectionTimeout());
+    assertEquals(2000, configuration.getSocketTimeout());
+    assertEquals(3000, configuration.getRequestTimeout());
+    assertEquals(60000, configuration.getConnectionTTL());
+    assertTrue(configuration.useTcpKeepAlive());
+    assertEquals(10, configuration.getMaxConnections());
+    assertTrue(configuration.useGzip());
+    assertEquals(1, configuration.getMaxErrorRetry());
+  }
+
+  @Test
+  public void defaultProfileKeepsSdkRetryPolicy() {
+    assertEquals(new ClientConfiguration().getMaxErrorRetry(),
+        EC2ClientProfile.DEFAULT.toClientConfiguration().getMaxErrorRetry());
+  }
+
+  @Test
+  public void profilesAreValues() {
+    assertEquals(EC2ClientProfile.DEFAULT, new EC2ClientProfile(10000, 50000, 0, -1, false, 50, false, -1));
+    assertEquals(EC2ClientProfile.DEFAULT.hashCode(), new EC2ClientProfile(10000, 50000, 0, -1, false, 50, false, -1).hashCode());
+    assertNotEquals(EC2ClientProfile.DEFAULT, new EC2ClientProfile(10000, 50000, 0, -1, false, 50, true, -1));
+  }
+
+  @Test
+  public void invalidValuesAreRejected() {
+    assertInvalid(() -> new EC2ClientProfile(-1, 50000, 0, -1, false, 50, false, -1));
+    assertInvalid(() -> new EC2ClientProfile(10000, -1, 0, -1, false, 50, false, -1));
+    assertInvalid(() -> new EC2ClientProfile(10000, 50000, -1, -1, false, 50, false, -1));
+    assertInvalid(() -> new EC2ClientProfile(10000, 50000, 0, -2, false, 50, false, -1));
+    assertInvalid(() -> new EC2ClientProfile(10000, 50000, 0, -1, false, 0, false, -1));
+    assertInvalid(() -> new EC2ClientProfile(10000, 50000, 0, -1, false, 50, false, -2));
+  }
+
+  private static void assertInvalid(final Runnable create) {
+    try {
+      create.run();
+      fail("an invalid profile was created");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
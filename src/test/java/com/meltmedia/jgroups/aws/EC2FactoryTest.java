@@ -0,0 +1,96 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class EC2FactoryTest {
+  private static InstanceIdentity usWest2 = identity("us-west-2");
+  private static InstanceIdentity usEast1 = identity("us-east-1");
+
+  @Test
+  public void sameConfigurationSharesClient() throws Exception {
+    final AmazonEC2 first = acquire(usWest2, "key");
+    final AmazonEC2 second = acquire(usWest2, "key");
+    try {
+      assertSame(first, second);
+    } finally {
+      EC2Factory.release(first);
+      EC2Factory.release(second);
+    }
+  }
+
+  @Test
+  public void differentRegionOrCredentialsDoNotShare() throws Exception {
+    final AmazonEC2 first = acquire(usWest2, "key");
+    final AmazonEC2 otherRegion = acquire(usEast1, "key");
+    final AmazonEC2 otherKey = acquire(usWest2, "other-key");
+    try {
+      assertNotSame(first, otherRegion);
+      assertNotSame(first, otherKey);
+    } finally {
+      EC2Factory.release(first);
+      EC2Factory.release(otherRegion);
+      EC2Factory.release(otherKey);
+    }
+  }
+
+  @Test
+  public void resolvedCredentialsShareWithConfiguredCredentials() throws Exception {
+    final AmazonEC2 first = acquire(usWest2, "key");
+    final AmazonEC2 second = EC2Factory.acquire(usWest2.region, "key", "secret", null,
+        EC2Factory.createCredentialsProvider("key", "secret", null, new CredentialsProviderFactory()), false,
+        EC2ClientProfile.DEFAULT);
+    try {
+      assertSame(first, second);
+    } finally {
+      EC2Factory.release(first);
+      EC2Factory.release(second);
+    }
+  }
+
+  @Test
+  public void differentProfilesDoNotShare() throws Exception {
+    final AmazonEC2 first = acquire(usWest2, "key");
+    final AmazonEC2 gzip = EC2Factory.acquire(usWest2.region, "key", "secret", null,
+        EC2Factory.createCredentialsProvider("key", "secret", null, new CredentialsProviderFactory()), false,
+        new EC2ClientProfile(10000, 50000, 0, -1, false, 50, true, -1));
+    try {
+      assertNotSame(first, gzip);
+    } finally {
+      EC2Factory.release(first);
+      EC2Factory.release(gzip);
+    }
+  }
+
+  @Test
+  public void clientIsReplacedAfterLastRelease() throws Exception {
+    final AmazonEC2 first = acquire(usWest2, "key");
+    final AmazonEC2 second = acquire(usWest2, "key");
+    EC2Factory.release(first);
+
+    final AmazonEC2 stillShared = acquire(usWest2, "key");
+    assertSame(second, stillShared);
+    EC2Factory.release(second);
+    EC2Factory.release(stillShared);
+
+    final AmazonEC2 replacement = acquire(usWest2, "key");
+    try {
+      assertNotSame(first, replacement);
+    } finally {
+      EC2Factory.release(replacement);
+    }
+  }
+
+  private static AmazonEC2 acquire(final InstanceIdentity identity, final String accessKey) throws Exception {
+    return EC2Factory.acquire(identity.region, accessKey, "secret", null,
+        EC2Factory.createCredentialsProvider(accessKey, "secret", null, new CredentialsProviderFactory()), false,
+        EC2ClientProfile.DEFAULT);
+  }
+
+  private static InstanceIdentity identity(final String region) {
+    return new InstanceIdentity(region + "a", "1.2.3.4", "instance_id", "instance_type", "image_id", "architecture", region);
+  }
+}
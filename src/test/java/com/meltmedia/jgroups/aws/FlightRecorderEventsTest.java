@@ -0,0 +1,77 @@
+package com.meltmedia.jgroups.aws;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class FlightRecorderEventsTest {
+
+  @Test
+  public void eventsAreNotCreatedWithoutRecording() {
+    assertNull(FlightRecorderEvents.beginDiscoveryRound());
+    assertNull(FlightRecorderEvents.beginSendFanOut());
+    assertNull(FlightRecorderEvents.beginImdsFetch());
+    assertEquals("response", FlightRecorderEvents.ec2Call("DescribeInstances", 1, () -> "response", String::length));
+  }
+
+  @Test
+  public void recordsEc2Calls() throws Exception {
+    final List<RecordedEvent> events = record("com.meltmedia.jgroups.aws.Ec2Call", () -> {
+      FlightRecorderEvents.ec2Call("DescribeInstances", 2, () -> Arrays.asList("a", "b", "c"), List::size);
+      try {
+        FlightRecorderEvents.ec2Call("DescribeTags", 1, () -> {
+          throw new IllegalStateException("throttled");
+        }, response -> 0);
+        fail("the failure should be rethrown");
+      } catch (IllegalStateException expected) {
+      }
+    });
+
+    assertEquals(2, events.size());
+    assertEquals("DescribeInstances", events.get(0).getString("action"));
+    assertEquals(2, events.get(0).getInt("page"));
+    assertEquals(3, events.get(0).getInt("results"));
+    assertNull(events.get(0).getString("errorCode"));
+    assertEquals("DescribeTags", events.get(1).getString("action"));
+    assertEquals("IllegalStateException", events.get(1).getString("errorCode"));
+  }
+
+  @Test
+  public void recordsDiscoveryRounds() throws Exception {
+    final List<RecordedEvent> events = record("com.meltmedia.jgroups.aws.DiscoveryRound", () ->
+        FlightRecorderEvents.commitDiscoveryRound(FlightRecorderEvents.beginDiscoveryRound(), true, 3, 150));
+
+    assertEquals(1, events.size());
+    assertEquals(true, events.get(0).getBoolean("initialDiscovery"));
+    assertEquals(3, events.get(0).getInt("addresses"));
+    assertEquals(150, events.get(0).getInt("messages"));
+  }
+
+  private static List<RecordedEvent> record(final String eventName, final Runnable body) throws Exception {
+    final Path file = Files.createTempFile("aws-ping", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(eventName).withThreshold(Duration.ZERO);
+      recording.start();
+      body.run();
+      recording.stop();
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file).stream()
+          .filter(event -> event.getEventType().getName().equals(eventName))
+          .collect(Collectors.toList());
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.meltmedia.jgroups.aws;
+
+import org.jgroups.stack.IpAddress;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HostProbesTest {
+
+  @Test
+  public void newHostsAreProbedOnTheFirstPort() throws Exception {
+    final HostProbes probes = new HostProbes(7800, 50);
+
+    assertEquals(
+        Arrays.asList(address("10.0.0.1", 7800), address("10.0.0.2", 7800)),
+        probes.expand(Arrays.asList("10.0.0.1", "10.0.0.2"), null));
+    assertEquals(2, probes.getProbedPorts());
+  }
+
+  @Test
+  public void answersFromTheHighestPortProbeTheNext() throws Exception {
+    final HostProbes probes = new HostProbes(7800, 50);
+    probes.expand(Collections.singletonList("10.0.0.1"), null);
+
+    assertEquals(address("10.0.0.1", 7801), probes.answered(address("10.0.0.1", 7800)));
+    assertEquals(address("10.0.0.1", 7802), probes.answered(address("10.0.0.1", 7801)));
+    assertNull(probes.answered(address("10.0.0.1", 7800)));
+    assertEquals(
+        Arrays.asList(address("10.0.0.1", 7800), address("10.0.0.1", 7801), address("10.0.0.1", 7802)),
+        probes.expand(Collections.singletonList("10.0.0.1"), null));
+  }
+
+  @Test
+  public void probesStopAtTheEndOfTheRange() throws Exception {
+    final HostProbes probes = new HostProbes(7800, 1);
+    probes.expand(Collections.singletonList("10.0.0.1"), null);
+
+    assertEquals(address("10.0.0.1", 7801), probes.answered(address("10.0.0.1", 7800)));
+    assertNull(probes.answered(address("10.0.0.1", 7801)));
+    assertNull(probes.answered(address("10.0.0.1", 7900)));
+    assertEquals(2, probes.expand(Collections.singletonList("10.0.0.1"), null).size());
+  }
+
+  @Test
+  public void portsThatStopAnsweringAreNoLongerProbed() throws Exception {
+    final HostProbes probes = new HostProbes(7800, 50);
+    probes.expand(Collections.singletonList("10.0.0.1"), null);
+    probes.answered(address("10.0.0.1", 7800));
+    probes.answered(address("10.0.0.1", 7801));
+    probes.answered(address("10.0.0.1", 7802));
+    assertEquals(4, probes.expand(Collections.singletonList("10.0.0.1"), null).size());
+
+    probes.answered(address("10.0.0.1", 7800));
+    assertEquals(
+        Arrays.asList(address("10.0.0.1", 7800), address("10.0.0.1", 7801)),
+        probes.expand(Collections.singletonList("10.0.0.1"), null));
+    assertEquals(2, probes.getProbedPorts());
+
+    assertEquals(
+        Collections.singletonList(address("10.0.0.1", 7800)),
+        probes.expand(Collections.singletonList("10.0.0.1"), null));
+  }
+
+  @Test
+  public void ownHostIsProbedPastThisNode() throws Exception {
+    final HostProbes probes = new HostProbes(7800, 50);
+
+    assertEquals(
+        Arrays.asList(address("10.0.0.1", 7800), address("10.0.0.1", 7801), address("10.0.0.1", 7802)),
+        probes.expand(Collections.singletonList("10.0.0.1"), address("10.0.0.1", 7801)));
+  }
+
+  private static IpAddress address(final String host, final int port) throws Exception {
+    return new IpAddress(host, port);
+  }
+}
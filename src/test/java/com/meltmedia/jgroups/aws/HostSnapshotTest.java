@@ -0,0 +1,136 @@
+package com.meltmedia.jgroups.aws;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HostSnapshotTest {
+  private static final List<String> MEMBERS = Arrays.asList("10.0.0.1", "10.0.0.2", "fd00::1");
+  private static final Supplier<List<String>> UNEXPECTED = () -> {
+    fail("looked the members up");
+    return null;
+  };
+
+  private Path file;
+  private final List<HostSnapshot> snapshots = new ArrayList<>();
+
+  @Before
+  public void setUp() throws Exception {
+    file = Files.createTempFile("aws-ping", ".snapshot");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    snapshots.forEach(HostSnapshot::release);
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void otherJvmsReadTheWrittenMembers() throws Exception {
+    final HostSnapshot writer = jvm("cluster-a", 60000);
+    final HostSnapshot reader = jvm("cluster-a", 60000);
+
+    assertEquals(MEMBERS, writer.get(() -> MEMBERS));
+    assertEquals(MEMBERS, reader.get(UNEXPECTED));
+    assertEquals(MEMBERS, reader.get(UNEXPECTED));
+
+    assertTrue(writer.isLeaseHolder());
+    assertFalse(reader.isLeaseHolder());
+    assertEquals(1, writer.getLookups());
+    assertEquals(2, reader.getReads());
+    assertEquals(0, reader.getLookups());
+  }
+
+  @Test
+  public void staleSnapshotsAreLookedUp() throws Exception {
+    final HostSnapshot writer = jvm("cluster-a", 1);
+    final HostSnapshot reader = jvm("cluster-a", 1);
+    writer.get(() -> MEMBERS);
+    Thread.sleep(20);
+
+    assertEquals(Arrays.asList("10.0.0.3"), reader.get(() -> Arrays.asList("10.0.0.3")));
+    assertEquals(1, reader.getLookups());
+    assertFalse(reader.isLeaseHolder());
+  }
+
+  @Test
+  public void otherClustersAreNotRead() throws Exception {
+    final HostSnapshot writer = jvm("cluster-a", 60000);
+    final HostSnapshot reader = jvm("cluster-b", 60000);
+    writer.get(() -> MEMBERS);
+
+    assertEquals(Arrays.asList("10.0.1.1"), reader.get(() -> Arrays.asList("10.0.1.1")));
+    assertEquals(0, reader.getReads());
+  }
+
+  @Test
+  public void leaseMovesWhenTheWriterExits() throws Exception {
+    final HostSnapshot writer = jvm("cluster-a", 1);
+    final HostSnapshot reader = jvm("cluster-a", 1);
+    writer.get(() -> MEMBERS);
+    writer.release();
+    Thread.sleep(20);
+
+    reader.get(() -> MEMBERS);
+    assertTrue(reader.isLeaseHolder());
+  }
+
+  @Test
+  public void largeSnapshotsGrowTheFile() throws Exception {
+    final List<String> members = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      members.add("10." + (i >> 16) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff));
+    }
+    final HostSnapshot writer = jvm("cluster-a", 60000);
+    final HostSnapshot reader = jvm("cluster-a", 60000);
+    writer.get(() -> members);
+
+    assertEquals(members, reader.get(UNEXPECTED));
+  }
+
+  @Test
+  public void corruptSnapshotsAreLookedUp() throws Exception {
+    final HostSnapshot writer = jvm("cluster-a", 60000);
+    final HostSnapshot reader = jvm("cluster-a", 60000);
+    writer.get(() -> MEMBERS);
+    try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+      raw.seek(46);
+      raw.write(99);
+    }
+
+    assertEquals(Arrays.asList("10.0.0.3"), reader.get(() -> Arrays.asList("10.0.0.3")));
+    assertEquals(0, reader.getReads());
+  }
+
+  @Test
+  public void maxAgeMustBePositive() throws Exception {
+    try {
+      new HostSnapshot(file, "cluster-a", 0);
+      fail("a max age of 0 was accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * @return a snapshot with a mapping and lease of its own, as in another JVM.
+   */
+  private HostSnapshot jvm(final String key, final long maxAge) throws Exception {
+    final HostSnapshot snapshot = new HostSnapshot(file, key, maxAge, false);
+    snapshots.add(snapshot);
+    return snapshot;
+  }
+}
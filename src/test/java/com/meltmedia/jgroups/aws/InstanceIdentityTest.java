@@ -9,9 +9,11 @@ import org.apache.http.client.HttpClient;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 
 import static com.google.common.io.Resources.getResource;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -40,5 +42,40 @@ public class InstanceIdentityTest {
     assertEquals("ami-5fb8c835", instanceIdentity.imageId);
     assertEquals("x86_64", instanceIdentity.architecture);
     assertEquals("us-west-2", instanceIdentity.region);
+    assertEquals("2016-11-19T16:32:11Z", instanceIdentity.pendingTime);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void skipsNestedValuesAndDecodesEscapes() throws Exception {
+    final InstanceIdentity instanceIdentity = InstanceIdentity.fromDocument("{"
+        + "\"marketplaceProductCodes\" : [ \"abc\", { \"nested\" : [1, 2] } ],"
+        + "\"availabilityZone\":\"us-east-1a\",\"privateIp\":\"10.0.0.1\",\"instanceId\":\"i-\\u0031\","
+        + "\"instanceType\":\"m5.large\",\"imageId\":\"ami-\\\"1\\\"\",\"architecture\":\"arm64\","
+        + "\"pendingTime\":12345,\"kernelId\":null,\"region\":\"us-east-1\"}");
+
+    assertEquals("us-east-1a", instanceIdentity.availabilityZone);
+    assertEquals("i-1", instanceIdentity.instanceId);
+    assertEquals("ami-\"1\"", instanceIdentity.imageId);
+    assertEquals("us-east-1", instanceIdentity.region);
+  }
+
+  @Test
+  public void missingFieldIsRejected() throws Exception {
+    try {
+      InstanceIdentity.fromDocument("{\"availabilityZone\":\"us-east-1a\"}");
+      fail("an identity was read from a document without an instance id");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void malformedDocumentIsRejected() throws Exception {
+    try {
+      InstanceIdentity.fromDocument("{\"availabilityZone\":\"us-east-1a\"");
+      fail("an identity was read from a truncated document");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
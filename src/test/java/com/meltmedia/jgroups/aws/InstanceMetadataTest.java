@@ -0,0 +1,72 @@
+package com.meltmedia.jgroups.aws;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InstanceMetadataTest {
+  private static final String BASE = "http://metadata/latest/meta-data/";
+
+  @Test
+  public void readsSubnetOfPrimaryInterface() throws Exception {
+    final Map<String, String> values = new HashMap<>();
+    values.put("mac", "0e:00:00:00:00:01");
+    values.put("network/interfaces/macs/0e:00:00:00:00:01/subnet-id", "subnet-1234\n");
+
+    assertEquals("subnet-1234", new InstanceMetadata(metadataClient(values), BASE).getSubnetId());
+  }
+
+  @Test
+  public void readsSecurityGroupsOfPrimaryInterface() throws Exception {
+    final Map<String, String> values = new HashMap<>();
+    values.put("mac", "0e:00:00:00:00:01");
+    values.put("network/interfaces/macs/0e:00:00:00:00:01/security-group-ids", "sg-1\nsg-2\n");
+
+    assertEquals(Arrays.asList("sg-1", "sg-2"), new InstanceMetadata(metadataClient(values), BASE).getSecurityGroupIds());
+  }
+
+  @Test
+  public void missingValueIsEmpty() throws Exception {
+    final Optional<String> value = new InstanceMetadata(metadataClient(new HashMap<>()), BASE).get("spot/instance-action");
+    assertFalse(value.isPresent());
+  }
+
+  @Test(expected = IOException.class)
+  public void missingRequiredValueThrows() throws Exception {
+    new InstanceMetadata(metadataClient(new HashMap<>()), BASE).getSubnetId();
+  }
+
+  /**
+   * Creates an HttpClient that serves the given metadata paths and responds 404 to everything else.
+   */
+  public static HttpClient metadataClient(final Map<String, String> values) throws Exception {
+    final HttpClient client = mock(HttpClient.class);
+    when(client.execute(any(HttpUriRequest.class))).thenAnswer(invocation -> {
+      final String url = ((HttpUriRequest) invocation.getArguments()[0]).getURI().toString();
+      final String value = url.startsWith(BASE) ? values.get(url.substring(BASE.length())) : null;
+      final HttpResponse response = mock(HttpResponse.class);
+      final StatusLine statusLine = mock(StatusLine.class);
+      when(statusLine.getStatusCode()).thenReturn(value != null ? HttpStatus.SC_OK : HttpStatus.SC_NOT_FOUND);
+      when(response.getStatusLine()).thenReturn(statusLine);
+      when(response.getEntity()).thenReturn(new StringEntity(value != null ? value : ""));
+      return response;
+    });
+    return client;
+  }
+}
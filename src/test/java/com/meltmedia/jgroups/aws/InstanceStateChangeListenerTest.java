@@ -0,0 +1,190 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InstanceStateChangeListenerTest {
+  private static final String QUEUE_URL = "https://sqs.us-west-2.amazonaws.com/123456789012/instance-state";
+
+  @Test
+  public void runningInstancesAreAddedAndPinged() {
+    final AddressCache cache = new AddressCache();
+    cache.refresh(Collections.singletonList("10.0.0.1"));
+    final List<String> pinged = new ArrayList<>();
+
+    listener(queue(stateChange("i-2", "running"), stateChange("i-1", "running")), cache, pinged).poll();
+
+    assertThat(cache.getAddresses(), containsInAnyOrder("10.0.0.1", "10.0.0.2"));
+    assertEquals(Collections.singletonList("10.0.0.2"), pinged);
+  }
+
+  @Test
+  public void stoppedInstancesAreRemoved() {
+    final AddressCache cache = new AddressCache();
+    cache.refresh(Arrays.asList("10.0.0.1", "10.0.0.2"));
+    final List<String> pinged = new ArrayList<>();
+
+    listener(queue(stateChange("i-2", "shutting-down")), cache, pinged).poll();
+
+    assertEquals(Collections.singletonList("10.0.0.1"), cache.getAddresses());
+    assertTrue(pinged.isEmpty());
+  }
+
+  @Test
+  public void snsWrappedNotificationsAreUnwrapped() {
+    final AddressCache cache = new AddressCache();
+    final List<String> pinged = new ArrayList<>();
+    final String sns = "{\"Type\":\"Notification\",\"Message\":" + quote(stateChange("i-3", "running")) + "}";
+
+    listener(queue(sns), cache, pinged).poll();
+
+    assertEquals(Collections.singletonList("10.0.0.3"), pinged);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void messagesAreDeletedIncludingUnknownOnes() {
+    final AmazonSQS sqs = queue("not json", "{\"source\":\"aws.s3\"}", stateChange("i-1", "pending"));
+
+    listener(sqs, new AddressCache(), new ArrayList<>()).poll();
+
+    final ArgumentCaptor<List> entries = ArgumentCaptor.forClass(List.class);
+    verify(sqs).deleteMessageBatch(eq(QUEUE_URL), entries.capture());
+    assertEquals(3, entries.getValue().size());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void messagesAreDeletedWhenStartedInstancesCannotBeFound() {
+    final AmazonSQS sqs = queue(stateChange("i-1", "running"), stateChange("i-2", "stopped"));
+    final AddressCache cache = new AddressCache();
+    cache.refresh(Arrays.asList("10.0.0.2", "10.0.0.3"));
+    final List<String> pinged = new ArrayList<>();
+
+    new InstanceStateChangeListener(
+        sqs,
+        QUEUE_URL,
+        cache,
+        ids -> {
+          throw new AmazonServiceException("The instance ID 'i-1' does not exist");
+        },
+        InstanceStateChangeListenerTest::addressesOf,
+        pinged::addAll).poll();
+
+    assertEquals(Collections.singletonList("10.0.0.3"), cache.getAddresses());
+    assertTrue(pinged.isEmpty());
+    final ArgumentCaptor<List> entries = ArgumentCaptor.forClass(List.class);
+    verify(sqs).deleteMessageBatch(eq(QUEUE_URL), entries.capture());
+    assertEquals(2, entries.getValue().size());
+  }
+
+  @Test
+  public void pollersOfAStoppedListenerExitAfterARestart() throws Exception {
+    final AmazonSQS sqs = mock(AmazonSQS.class);
+    final List<Thread> pollers = new CopyOnWriteArrayList<>();
+    final CountDownLatch firstPolling = new CountDownLatch(1);
+    final CountDownLatch secondPolling = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    when(sqs.receiveMessage(any(ReceiveMessageRequest.class))).thenAnswer(invocation -> {
+      if (!pollers.contains(Thread.currentThread())) {
+        pollers.add(Thread.currentThread());
+        (pollers.size() == 1 ? firstPolling : secondPolling).countDown();
+      }
+      // like the long poll of the SDK, the wait is not cut short by an interrupt
+      boolean released = false;
+      while (!released) {
+        try {
+          released = release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // keep waiting
+        }
+      }
+      return new ReceiveMessageResult();
+    });
+    final InstanceStateChangeListener listener = listener(sqs, new AddressCache(), new ArrayList<>());
+
+    listener.start();
+    assertTrue(firstPolling.await(10, TimeUnit.SECONDS));
+    listener.stop();
+    listener.start();
+    assertTrue(secondPolling.await(10, TimeUnit.SECONDS));
+    release.countDown();
+
+    try {
+      pollers.get(0).join(10000);
+      assertFalse("the stopped poller kept polling", pollers.get(0).isAlive());
+      assertEquals(2, pollers.size());
+    } finally {
+      listener.stop();
+    }
+    pollers.get(1).join(10000);
+    assertFalse(pollers.get(1).isAlive());
+  }
+
+  private static InstanceStateChangeListener listener(final AmazonSQS sqs, final AddressCache cache, final List<String> pinged) {
+    return new InstanceStateChangeListener(
+        sqs,
+        QUEUE_URL,
+        cache,
+        InstanceStateChangeListenerTest::addressesOf,
+        InstanceStateChangeListenerTest::addressesOf,
+        pinged::addAll);
+  }
+
+  /**
+   * A stand-in for EC2 where instance i-N has the address 10.0.0.N.
+   */
+  private static List<String> addressesOf(final Collection<String> instanceIds) {
+    return instanceIds.stream()
+        .map(id -> "10.0.0." + id.substring(2))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * A stand-in for SQS that delivers the given message bodies in one batch.
+   */
+  private static AmazonSQS queue(final String... bodies) {
+    final AmazonSQS sqs = mock(AmazonSQS.class);
+    final List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < bodies.length; i++) {
+      messages.add(new Message().withBody(bodies[i]).withReceiptHandle("receipt-" + i));
+    }
+    when(sqs.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(new ReceiveMessageResult().withMessages(messages));
+    return sqs;
+  }
+
+  private static String stateChange(final String instanceId, final String state) {
+    return "{\"detail-type\":\"EC2 Instance State-change Notification\",\"source\":\"aws.ec2\",\"region\":\"us-west-2\","
+        + "\"detail\":{\"instance-id\":\"" + instanceId + "\",\"state\":\"" + state + "\"}}";
+  }
+
+  private static String quote(final String json) {
+    return "\"" + json.replace("\"", "\\\"") + "\"";
+  }
+}
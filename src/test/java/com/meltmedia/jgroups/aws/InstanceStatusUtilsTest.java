@@ -0,0 +1,83 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
+import com.amazonaws.services.ec2.model.DescribeInstanceStatusResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceStatus;
+import com.amazonaws.services.ec2.model.InstanceStatusSummary;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InstanceStatusUtilsTest {
+
+  @Test
+  public void dropsImpairedInstances() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeInstanceStatus(any(DescribeInstanceStatusRequest.class))).thenReturn(
+        new DescribeInstanceStatusResult().withInstanceStatuses(
+            status("i-1", "ok", "ok"),
+            status("i-2", "impaired", "ok"),
+            status("i-3", "ok", "impaired")));
+    final InstanceStatusUtils statusUtils = new InstanceStatusUtils(ec2, 60000);
+
+    final List<Instance> healthy = statusUtils.dropImpaired(instances("i-1", "i-2", "i-3", "i-4"));
+
+    assertEquals(Arrays.asList("i-1", "i-4"), healthy.stream().map(Instance::getInstanceId).collect(Collectors.toList()));
+    assertEquals(2, statusUtils.getDropped());
+    assertEquals(2, statusUtils.getImpaired());
+  }
+
+  @Test
+  public void cachesStatuses() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeInstanceStatus(any(DescribeInstanceStatusRequest.class))).thenReturn(
+        new DescribeInstanceStatusResult().withInstanceStatuses(status("i-1", "impaired", "ok")));
+    final InstanceStatusUtils statusUtils = new InstanceStatusUtils(ec2, 60000);
+
+    statusUtils.dropImpaired(instances("i-1", "i-2"));
+    statusUtils.dropImpaired(instances("i-1", "i-2"));
+
+    verify(ec2, times(1)).describeInstanceStatus(any(DescribeInstanceStatusRequest.class));
+    assertEquals(2, statusUtils.getDropped());
+  }
+
+  @Test
+  public void describesInBatches() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeInstanceStatus(any(DescribeInstanceStatusRequest.class)))
+        .thenReturn(new DescribeInstanceStatusResult());
+    final InstanceStatusUtils statusUtils = new InstanceStatusUtils(ec2, 60000);
+
+    final List<Instance> healthy = statusUtils.dropImpaired(instances(IntStream.range(0, 250)
+        .mapToObj(i -> "i-" + i)
+        .toArray(String[]::new)));
+
+    assertEquals(250, healthy.size());
+    verify(ec2, times(3)).describeInstanceStatus(any(DescribeInstanceStatusRequest.class));
+  }
+
+  private static InstanceStatus status(final String instanceId, final String instanceStatus, final String systemStatus) {
+    return new InstanceStatus()
+        .withInstanceId(instanceId)
+        .withInstanceStatus(new InstanceStatusSummary().withStatus(instanceStatus))
+        .withSystemStatus(new InstanceStatusSummary().withStatus(systemStatus));
+  }
+
+  private static List<Instance> instances(final String... instanceIds) {
+    return Arrays.stream(instanceIds)
+        .map(id -> new Instance().withInstanceId(id).withPrivateIpAddress("10.0.0.1"))
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,61 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InstancesUtilsTest {
+
+  @Test
+  public void followsPages() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(
+        page("token-1", "10.0.0.1", "10.0.0.2"),
+        page("token-2", "10.0.0.3"),
+        page(null, "10.0.0.4"));
+    final List<List<String>> pages = new ArrayList<>();
+
+    final List<String> addresses = new InstancesUtils(ec2, 5).getPrivateIpAddresses(Collections.emptyList(), pages::add);
+
+    assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4"), addresses);
+    assertEquals(Arrays.asList(
+        Arrays.asList("10.0.0.1", "10.0.0.2"),
+        Collections.singletonList("10.0.0.3"),
+        Collections.singletonList("10.0.0.4")), pages);
+    verify(ec2, times(3)).describeInstances(any(DescribeInstancesRequest.class));
+  }
+
+  @Test
+  public void skipsInstancesWithoutAddress() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(new DescribeInstancesResult()
+        .withReservations(new Reservation().withInstances(new Instance().withInstanceId("i-1"))));
+
+    final List<String> addresses = new InstancesUtils(ec2, 0).getPrivateIpAddresses(Collections.singletonList("i-1"), Collections.emptyList());
+
+    assertEquals(Collections.emptyList(), addresses);
+  }
+
+  static DescribeInstancesResult page(final String nextToken, final String... addresses) {
+    return new DescribeInstancesResult()
+        .withNextToken(nextToken)
+        .withReservations(new Reservation().withInstances(Arrays.stream(addresses)
+            .map(address -> new Instance().withPrivateIpAddress(address))
+            .toArray(Instance[]::new)));
+  }
+}
@@ -0,0 +1,120 @@
+package com.meltmedia.jgroups.aws;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the watcher against a local stand-in for the instance metadata service.
+ */
+public class InterruptionNoticeWatcherTest {
+  private static final String SPOT_NOTICE = "{\"action\": \"terminate\", \"time\": \"2017-09-18T08:22:00Z\"}";
+
+  private final Map<String, String> metadata = new ConcurrentHashMap<>();
+  private final List<String> notices = new CopyOnWriteArrayList<>();
+  private HttpServer server;
+  private CloseableHttpClient client;
+  private InterruptionNoticeWatcher watcher;
+
+  @Before
+  public void startMetadataService() throws Exception {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/latest/meta-data/", exchange -> {
+      final String value = metadata.get(exchange.getRequestURI().getPath().substring("/latest/meta-data/".length()));
+      final byte[] body = (value != null ? value : "Not Found").getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(value != null ? 200 : 404, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    client = HttpClients.createDefault();
+    watcher = new InterruptionNoticeWatcher(
+        new InstanceMetadata(client, "http://127.0.0.1:" + server.getAddress().getPort() + "/latest/meta-data/"),
+        (path, notice) -> notices.add(path + ": " + notice));
+  }
+
+  @After
+  public void stopMetadataService() throws Exception {
+    watcher.stop();
+    client.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void noNoticeWhileMetadataAnswersNotFound() {
+    assertFalse(watcher.check());
+    assertTrue(notices.isEmpty());
+  }
+
+  @Test
+  public void spotInterruptionIsNoticedOnce() {
+    metadata.put(InterruptionNoticeWatcher.SPOT_INSTANCE_ACTION, SPOT_NOTICE);
+
+    assertTrue(watcher.check());
+    assertTrue(watcher.check());
+    assertEquals(1, notices.size());
+    assertEquals(InterruptionNoticeWatcher.SPOT_INSTANCE_ACTION + ": " + SPOT_NOTICE, notices.get(0));
+  }
+
+  @Test
+  public void rebalanceRecommendationDoesNotStopPolling() {
+    metadata.put(InterruptionNoticeWatcher.REBALANCE_RECOMMENDATION, "{\"noticeTime\": \"2020-10-27T08:22:00Z\"}");
+
+    assertFalse(watcher.check());
+    metadata.put(InterruptionNoticeWatcher.SPOT_INSTANCE_ACTION, SPOT_NOTICE);
+    assertTrue(watcher.check());
+
+    assertEquals(2, notices.size());
+    assertTrue(notices.get(1).startsWith(InterruptionNoticeWatcher.SPOT_INSTANCE_ACTION));
+  }
+
+  @Test
+  public void noticesAreReportedAgainAfterARestart() throws Exception {
+    metadata.put(InterruptionNoticeWatcher.SPOT_INSTANCE_ACTION, SPOT_NOTICE);
+    watcher.start(20);
+    awaitNotices(1);
+    watcher.stop();
+
+    watcher.start(20);
+    awaitNotices(2);
+    assertEquals(2, notices.size());
+  }
+
+  @Test
+  public void rebalanceRecommendationIsNoticedWhilePolling() throws Exception {
+    watcher.start(20);
+    Thread.sleep(100);
+    assertTrue(notices.isEmpty());
+
+    metadata.put(InterruptionNoticeWatcher.REBALANCE_RECOMMENDATION, "{\"noticeTime\": \"2020-10-27T08:22:00Z\"}");
+
+    awaitNotices(1);
+    assertEquals(1, notices.size());
+    assertTrue(notices.get(0).startsWith(InterruptionNoticeWatcher.REBALANCE_RECOMMENDATION));
+  }
+
+  private void awaitNotices(final int count) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (notices.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+}
@@ -71,6 +71,18 @@ public class LoadCredentialsProviderTest {
     }
   }
 
+  @Test
+  public void registeredProviderIsNotLoaded() throws Exception {
+    Log log = Mockito.mock(Log.class);
+    final String className = "com.meltmedia.jgroups.aws.RegisteredCredentialProvider";
+    CredentialsProviderFactory.register(className, UnsupportedAWSCredentialProvider::new);
+
+    ClassLoader contextClassLoader = Mockito.mock(ClassLoader.class, answerWith(Thread.currentThread().getContextClassLoader()));
+
+    assertTrue(doCall(contextClassLoader, className, log) instanceof UnsupportedAWSCredentialProvider);
+    verify(contextClassLoader, never()).loadClass(className);
+  }
+
   @Test 
   public void noContextClassLoader() throws Exception {
     Log log = Mockito.mock(Log.class);
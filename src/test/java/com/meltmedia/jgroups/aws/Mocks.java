@@ -3,7 +3,14 @@ package com.meltmedia.jgroups.aws;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.model.*;
 
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
@@ -13,14 +20,84 @@ public class Mocks {
   public static AmazonEC2 ec2Mock(Tag... tags) {
     final AmazonEC2 ec2 = mock(AmazonEC2.class);
 
-    final DescribeInstancesResult describeInstancesResult = mock(DescribeInstancesResult.class);
-    final Reservation reservation = mock(Reservation.class);
-    final Instance instance = mock(Instance.class);
-    when(instance.getTags()).thenReturn(Arrays.asList(tags));
-    when(reservation.getInstances()).thenReturn(Arrays.asList(instance));
-    when(describeInstancesResult.getReservations()).thenReturn(Arrays.asList(reservation));
-    when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(describeInstancesResult);
+    final DescribeTagsResult describeTagsResult = new DescribeTagsResult()
+        .withTags(Arrays.stream(tags)
+            .map(tag -> new TagDescription()
+                .withResourceId("instance_id")
+                .withResourceType("instance")
+                .withKey(tag.getKey())
+                .withValue(tag.getValue()))
+            .collect(Collectors.toList()));
+    when(ec2.describeTags(any(DescribeTagsRequest.class))).thenReturn(describeTagsResult);
 
     return ec2;
   }
+
+  /**
+   * The private ip addresses of a fleet, 10.0.0.1 and up, 250 to a subnet.
+   *
+   * @param size the number of instances in the fleet.
+   */
+  public static List<String> fleet(final int size) {
+    return IntStream.range(0, size)
+        .mapToObj(i -> "10.0." + (i / 250) + "." + (i % 250 + 1))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * An EC2 client that answers DescribeInstances with a fixed fleet of running instances and counts the calls.  The
+   * response is built once, and the client is a dynamic proxy rather than a mock, so calls are not recorded.  That
+   * keeps it cheap for scale simulations and allocation measurements.
+   *
+   * @param addresses the private ip addresses of the fleet.
+   * @param calls counts the calls made.
+   */
+  public static AmazonEC2 fleetEc2(final List<String> addresses, final AtomicLong calls) {
+    final List<Instance> instances = new ArrayList<>();
+    for (int i = 0; i < addresses.size(); i++) {
+      instances.add(new Instance()
+          .withInstanceId(String.format("i-%017x", i))
+          .withPrivateIpAddress(addresses.get(i))
+          .withState(new InstanceState().withName("running")));
+    }
+    return instancesEc2(instances, calls, request -> {});
+  }
+
+  /**
+   * An EC2 client that answers DescribeInstances with the given instances, regardless of the filters, and counts the
+   * calls.
+   *
+   * @param instances the instances of the fleet.
+   * @param calls counts the calls made.
+   * @param onDescribe receives each DescribeInstances request before it is answered.
+   */
+  public static AmazonEC2 instancesEc2(
+      final List<Instance> instances,
+      final AtomicLong calls,
+      final Consumer<DescribeInstancesRequest> onDescribe) {
+    final DescribeInstancesResult fleet = new DescribeInstancesResult()
+        .withReservations(new Reservation().withInstances(instances));
+    return (AmazonEC2) Proxy.newProxyInstance(
+        AmazonEC2.class.getClassLoader(),
+        new Class<?>[]{AmazonEC2.class},
+        (target, method, args) -> {
+          switch (method.getName()) {
+            case "describeInstances":
+              calls.incrementAndGet();
+              onDescribe.accept((DescribeInstancesRequest) args[0]);
+              return fleet;
+            case "shutdown":
+              return null;
+            case "toString":
+              return "fleetEc2";
+            case "hashCode":
+              return System.identityHashCode(target);
+            case "equals":
+              return target == args[0];
+            default:
+              calls.incrementAndGet();
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
 }
@@ -0,0 +1,123 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.model.Filter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MultiRegionLookupTest {
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void mergesRegions() {
+    final Map<String, InstancesUtils> regions = new LinkedHashMap<>();
+    regions.put("us-east-1", region("10.0.0.1", "10.0.0.2"));
+    regions.put("us-west-2", region("10.1.0.1", "10.0.0.2"));
+
+    final MultiRegionLookup lookup = new MultiRegionLookup(regions, executor, 1000);
+
+    assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2", "10.1.0.1"),
+        lookup.getPrivateIpAddresses(Collections.emptyList(), page -> {}));
+    assertEquals(Arrays.asList("us-east-1", "us-west-2"), Arrays.asList(lookup.getLatencies().keySet().toArray()));
+  }
+
+  @Test
+  public void slowRegionUsesItsLastAddresses() {
+    final CountDownLatch[] slow = {new CountDownLatch(0)};
+    final Map<String, InstancesUtils> regions = new LinkedHashMap<>();
+    regions.put("us-east-1", region("10.0.0.1"));
+    regions.put("eu-west-1", new InstancesUtils(null, 0) {
+      @Override
+      public List<String> getPrivateIpAddresses(final List<Filter> filters, final Consumer<List<String>> pageConsumer) {
+        try {
+          slow[0].await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return Collections.singletonList("10.2.0.1");
+      }
+    });
+    final MultiRegionLookup lookup = new MultiRegionLookup(regions, executor, 200);
+
+    assertEquals(Arrays.asList("10.0.0.1", "10.2.0.1"), lookup.getPrivateIpAddresses(Collections.emptyList(), page -> {}));
+
+    slow[0] = new CountDownLatch(1);
+    final long start = System.nanoTime();
+    assertEquals(Arrays.asList("10.0.0.1", "10.2.0.1"), lookup.getPrivateIpAddresses(Collections.emptyList(), page -> {}));
+    assertTrue((System.nanoTime() - start) / 1000000 < 1000);
+    slow[0].countDown();
+  }
+
+  @Test
+  public void failedRegionWithoutHistoryContributesNothing() {
+    final Map<String, InstancesUtils> regions = new LinkedHashMap<>();
+    regions.put("us-east-1", region("10.0.0.1"));
+    regions.put("eu-west-1", failingRegion(new IllegalStateException("throttled")));
+
+    final MultiRegionLookup lookup = new MultiRegionLookup(regions, executor, 1000);
+
+    assertEquals(Collections.singletonList("10.0.0.1"), lookup.getPrivateIpAddresses(Collections.emptyList(), page -> {}));
+    assertNull(lookup.getLatencies().get("eu-west-1"));
+  }
+
+  @Test
+  public void parsesRegionsWithRoles() {
+    final List<MultiRegionLookup.Region> regions =
+        MultiRegionLookup.parseRegions(" us-west-2, eu-west-1@arn:aws:iam::123456789012:role/discovery ,us-west-2");
+
+    assertEquals(2, regions.size());
+    assertEquals("us-west-2", regions.get(0).region);
+    assertNull(regions.get(0).roleArn);
+    assertEquals("eu-west-1", regions.get(1).region);
+    assertEquals("arn:aws:iam::123456789012:role/discovery", regions.get(1).roleArn);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMissingRole() {
+    MultiRegionLookup.parseRegions("us-west-2@");
+  }
+
+  private static InstancesUtils region(final String... addresses) {
+    return new InstancesUtils(null, 0) {
+      @Override
+      public List<String> getPrivateIpAddresses(final List<Filter> filters, final Consumer<List<String>> pageConsumer) {
+        final List<String> result = Arrays.asList(addresses);
+        pageConsumer.accept(result);
+        return result;
+      }
+    };
+  }
+
+  private static InstancesUtils failingRegion(final RuntimeException failure) {
+    return new InstancesUtils(null, 0) {
+      @Override
+      public List<String> getPrivateIpAddresses(final List<Filter> filters, final Consumer<List<String>> pageConsumer) {
+        throw failure;
+      }
+    };
+  }
+}
@@ -0,0 +1,83 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeNetworkInterfacesRequest;
+import com.amazonaws.services.ec2.model.DescribeNetworkInterfacesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.NetworkInterface;
+import com.amazonaws.services.ec2.model.NetworkInterfacePrivateIpAddress;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.meltmedia.jgroups.aws.InstanceMetadataTest.metadataClient;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NetworkInterfacesUtilsTest {
+
+  @Test
+  public void collectsPrimaryAndSecondaryAddresses() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeNetworkInterfaces(any(DescribeNetworkInterfacesRequest.class))).thenReturn(
+        new DescribeNetworkInterfacesResult().withNetworkInterfaces(
+            networkInterface("10.0.0.1", "10.0.0.2"),
+            networkInterface("10.0.0.3"),
+            networkInterface("10.0.0.3")));
+
+    final List<String> addresses = new NetworkInterfacesUtils(ec2, Collections.emptyList())
+        .getPrivateIpAddresses(Collections.emptyList());
+
+    assertThat(addresses, containsInAnyOrder("10.0.0.1", "10.0.0.2", "10.0.0.3"));
+  }
+
+  @Test
+  public void addsScopeToConfiguredFilters() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeNetworkInterfaces(any(DescribeNetworkInterfacesRequest.class)))
+        .thenReturn(new DescribeNetworkInterfacesResult());
+    final Filter scope = new Filter("subnet-id", Collections.singletonList("subnet-1"));
+    final Filter configured = new Filter("vpc-id", Collections.singletonList("vpc-1"));
+
+    new NetworkInterfacesUtils(ec2, Collections.singletonList(scope)).getPrivateIpAddresses(Collections.singletonList(configured));
+
+    final ArgumentCaptor<DescribeNetworkInterfacesRequest> request = ArgumentCaptor.forClass(DescribeNetworkInterfacesRequest.class);
+    verify(ec2).describeNetworkInterfaces(request.capture());
+    assertEquals(Arrays.asList(scope, configured), request.getValue().getFilters());
+  }
+
+  @Test
+  public void securityGroupScopeUsesAllGroups() throws Exception {
+    final Map<String, String> values = new HashMap<>();
+    values.put("mac", "0e:00:00:00:00:01");
+    values.put("network/interfaces/macs/0e:00:00:00:00:01/security-group-ids", "sg-1\nsg-2");
+
+    final List<Filter> filters = NetworkInterfacesUtils.scopeFilters(NetworkInterfacesUtils.SCOPE_SECURITY_GROUP,
+        new InstanceMetadata(metadataClient(values), "http://metadata/latest/meta-data/"));
+
+    assertEquals(Arrays.asList(
+        new Filter("status", Collections.singletonList("in-use")),
+        new Filter("group-id", Arrays.asList("sg-1", "sg-2"))), filters);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownScopeIsRejected() throws Exception {
+    NetworkInterfacesUtils.scopeFilters("vpc", new InstanceMetadata(metadataClient(new HashMap<>())));
+  }
+
+  private static NetworkInterface networkInterface(final String... addresses) {
+    return new NetworkInterface().withPrivateIpAddresses(Arrays.stream(addresses)
+        .map(address -> new NetworkInterfacePrivateIpAddress().withPrivateIpAddress(address))
+        .toArray(NetworkInterfacePrivateIpAddress[]::new));
+  }
+}
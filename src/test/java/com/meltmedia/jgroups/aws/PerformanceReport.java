@@ -0,0 +1,47 @@
+package com.meltmedia.jgroups.aws;
+
+import org.junit.Assume;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * The report of a performance test that only runs on request.  The test named "scale" is skipped unless run with
+ * -Daws.ping.scale=true, and appends its results to target/aws-ping-scale-report.txt, or the file named by
+ * aws.ping.scale.report.
+ */
+public class PerformanceReport {
+  private final File file;
+
+  private PerformanceReport(final File file) {
+    this.file = file;
+  }
+
+  /**
+   * Skips the calling test unless it was requested, and returns its report.
+   *
+   * @param name the name of the test, in its system properties and report file.
+   * @param description what the test does, for the skip message.
+   */
+  public static PerformanceReport requested(final String name, final String description) {
+    final String property = "aws.ping." + name;
+    Assume.assumeTrue("set -D" + property + "=true to run the " + description, Boolean.getBoolean(property));
+    return new PerformanceReport(
+        new File(System.getProperty(property + ".report", "target/aws-ping-" + name + "-report.txt")));
+  }
+
+  /**
+   * Appends a result to the report, creating it if needed.
+   */
+  public void write(final Object result) throws IOException {
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      throw new IOException("could not create " + parent);
+    }
+    try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+      out.println(result);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshingCredentialsProviderTest {
+
+  @Test
+  public void sameClassAndIntervalShareProvider() throws Exception {
+    final AtomicInteger created = new AtomicInteger();
+    final RefreshingCredentialsProvider first = RefreshingCredentialsProvider.acquire("shared", 60000, () -> {
+      created.incrementAndGet();
+      return new RotatingProvider();
+    });
+    final RefreshingCredentialsProvider second = RefreshingCredentialsProvider.acquire("shared", 60000, () -> {
+      created.incrementAndGet();
+      return new RotatingProvider();
+    });
+    try {
+      assertSame(first, second);
+      assertEquals(1, created.get());
+    } finally {
+      RefreshingCredentialsProvider.release(first);
+      RefreshingCredentialsProvider.release(second);
+    }
+  }
+
+  @Test
+  public void credentialsAreServedFromCache() throws Exception {
+    final RotatingProvider delegate = new RotatingProvider();
+    final RefreshingCredentialsProvider provider = RefreshingCredentialsProvider.acquire("cached", 60000, () -> delegate);
+    try {
+      final AWSCredentials credentials = provider.getCredentials();
+      for (int i = 0; i < 10; i++) {
+        assertSame(credentials, provider.getCredentials());
+      }
+      assertEquals(1, delegate.loads.get());
+    } finally {
+      RefreshingCredentialsProvider.release(provider);
+    }
+  }
+
+  @Test
+  public void credentialsAreRefreshedInBackground() throws Exception {
+    final RotatingProvider delegate = new RotatingProvider();
+    final RefreshingCredentialsProvider provider = RefreshingCredentialsProvider.acquire("background", 20, () -> delegate);
+    try {
+      final String first = provider.getCredentials().getAWSAccessKeyId();
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (first.equals(provider.getCredentials().getAWSAccessKeyId()) && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertNotEquals(first, provider.getCredentials().getAWSAccessKeyId());
+    } finally {
+      RefreshingCredentialsProvider.release(provider);
+    }
+  }
+
+  @Test
+  public void failedRefreshKeepsPreviousCredentials() throws Exception {
+    final RotatingProvider delegate = new RotatingProvider();
+    final RefreshingCredentialsProvider provider = RefreshingCredentialsProvider.acquire("failing", 60000, () -> delegate);
+    try {
+      final AWSCredentials credentials = provider.getCredentials();
+      delegate.failing = true;
+
+      provider.reload();
+
+      assertSame(credentials, provider.getCredentials());
+      assertEquals(1, provider.getFailures());
+    } finally {
+      RefreshingCredentialsProvider.release(provider);
+    }
+  }
+
+  @Test
+  public void releasedProviderPassesThrough() throws Exception {
+    final RotatingProvider delegate = new RotatingProvider();
+    final RefreshingCredentialsProvider provider = RefreshingCredentialsProvider.acquire("released", 60000, () -> delegate);
+    RefreshingCredentialsProvider.release(provider);
+
+    provider.getCredentials();
+    provider.getCredentials();
+
+    assertEquals(3, delegate.loads.get());
+  }
+
+  @Test
+  public void slowProviderDoesNotBlockOtherProviders() throws Exception {
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch loaded = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<RefreshingCredentialsProvider> slow = executor.submit(
+          () -> RefreshingCredentialsProvider.acquire("slow", 60000, () -> new RotatingProvider() {
+            @Override
+            public void refresh() {
+              loading.countDown();
+              try {
+                loaded.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            }
+          }));
+      assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+      final Future<RefreshingCredentialsProvider> fast =
+          executor.submit(() -> RefreshingCredentialsProvider.acquire("fast", 60000, RotatingProvider::new));
+      RefreshingCredentialsProvider.release(fast.get(5, TimeUnit.SECONDS));
+
+      loaded.countDown();
+      RefreshingCredentialsProvider.release(slow.get(5, TimeUnit.SECONDS));
+    } finally {
+      loaded.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void racingAcquiresShareTheFirstRegisteredProvider() throws Exception {
+    final int threads = 8;
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final List<Future<RefreshingCredentialsProvider>> acquired = new ArrayList<>();
+    try {
+      for (int i = 0; i < threads; i++) {
+        acquired.add(executor.submit(() -> RefreshingCredentialsProvider.acquire("racing", 60000, () -> {
+          barrier.await(5, TimeUnit.SECONDS);
+          return new RotatingProvider();
+        })));
+      }
+      final RefreshingCredentialsProvider first = acquired.get(0).get(5, TimeUnit.SECONDS);
+      for (final Future<RefreshingCredentialsProvider> provider : acquired) {
+        assertSame(first, provider.get(5, TimeUnit.SECONDS));
+      }
+      for (int i = 0; i < threads; i++) {
+        RefreshingCredentialsProvider.release(first);
+      }
+
+      final RefreshingCredentialsProvider replacement =
+          RefreshingCredentialsProvider.acquire("racing", 60000, RotatingProvider::new);
+      RefreshingCredentialsProvider.release(replacement);
+      assertNotSame(first, replacement);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns new credentials on every load.
+   */
+  private static class RotatingProvider implements AWSCredentialsProvider {
+    private final AtomicInteger loads = new AtomicInteger();
+    private volatile boolean failing = false;
+
+    @Override
+    public AWSCredentials getCredentials() {
+      if (failing) {
+        throw new AmazonClientException("metadata service unavailable");
+      }
+      final int load = loads.incrementAndGet();
+      return new BasicAWSCredentials("key-" + load, "secret-" + load);
+    }
+
+    @Override
+    public void refresh() {
+    }
+  }
+}
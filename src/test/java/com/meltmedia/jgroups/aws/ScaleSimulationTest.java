@@ -0,0 +1,237 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.ec2.AmazonEC2;
+import org.apache.http.client.HttpClient;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.View;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.MERGE3;
+import org.jgroups.protocols.TCP;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Starts hundreds of real channels with AWS_PING over loopback, each bound to its own 127.0.x.y address, against a
+ * simulated EC2 fleet, and reports how long they take to form one view, how many discovery requests they send, how
+ * many EC2 calls they make and how much heap they use.  It is skipped unless run with -Daws.ping.scale=true:
+ *
+ * <pre>
+ * mvn test -Dtest=ScaleSimulationTest -Daws.ping.scale=true -Daws.ping.scale.sizes=10,100,250,500
+ * </pre>
+ *
+ * The report is appended to target/aws-ping-scale-report.txt, or the file named by aws.ping.scale.report.  Binding
+ * to addresses other than 127.0.0.1 requires a Linux loopback interface.
+ */
+public class ScaleSimulationTest {
+  private static final String CLUSTER_NAME = "aws-ping-scale";
+  private static final String REGION = "us-east-1";
+  private static final int PORT = 7800;
+
+  private List<Integer> sizes;
+  private long timeout;
+  private PerformanceReport report;
+
+  @Before
+  public void setUp() {
+    report = PerformanceReport.requested("scale", "scale simulation");
+    sizes = Arrays.stream(System.getProperty("aws.ping.scale.sizes", "10,50,100").split("\\s*,\\s*"))
+        .map(Integer::valueOf)
+        .collect(Collectors.toList());
+    timeout = Long.getLong("aws.ping.scale.timeout", 300000);
+  }
+
+  @Test
+  public void formsFullView() throws Exception {
+    for (final int size : sizes) {
+      final Result result = simulate(size);
+      report.write(result);
+      assertTrue(size + " channels did not form a full view within " + timeout + " ms", result.fullView);
+    }
+  }
+
+  private Result simulate(final int size) throws Exception {
+    final List<String> fleet = IntStream.range(0, size)
+        .mapToObj(ScaleSimulationTest::address)
+        .collect(Collectors.toList());
+    final AtomicLong ec2Calls = new AtomicLong();
+    final AmazonEC2 ec2 = Mocks.fleetEc2(fleet, ec2Calls);
+    final AtomicLong discoveryRequests = new AtomicLong();
+    final List<JChannel> channels = new ArrayList<>();
+    final ExecutorService connectors = Executors.newFixedThreadPool(Math.min(size, 32));
+
+    final long heapBefore = usedHeap();
+    final long start = System.nanoTime();
+    try {
+      for (int i = 0; i < size; i++) {
+        channels.add(channel(fleet.get(i), i, ec2, discoveryRequests));
+      }
+      final List<Future<?>> connects = new ArrayList<>();
+      for (final JChannel channel : channels) {
+        connects.add(connectors.submit(() -> {
+          channel.connect(CLUSTER_NAME);
+          return null;
+        }));
+      }
+      for (final Future<?> connect : connects) {
+        connect.get(timeout, TimeUnit.MILLISECONDS);
+      }
+
+      final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+      boolean fullView = false;
+      while (!fullView && System.nanoTime() < deadline) {
+        fullView = channels.stream().allMatch(channel -> {
+          final View view = channel.getView();
+          return view != null && view.size() == size;
+        });
+        if (!fullView) {
+          Thread.sleep(50);
+        }
+      }
+      final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      final long heapUsed = usedHeap() - heapBefore;
+      return new Result(size, fullView, elapsed, discoveryRequests.get(), ec2Calls.get(), heapUsed);
+    } finally {
+      connectors.shutdownNow();
+      channels.forEach(JChannel::close);
+    }
+  }
+
+  private static JChannel channel(
+      final String address,
+      final int index,
+      final AmazonEC2 ec2,
+      final AtomicLong discoveryRequests) throws Exception {
+    final SimulatedPing ping = new SimulatedPing(
+        new InstanceIdentity(REGION + "a", address, instanceId(index), "m5.large", "ami-1", "x86_64", REGION),
+        ec2);
+    ping.port_number = PORT;
+    ping.port_range = 0;
+
+    final TCP tcp = new TCP();
+    tcp.setValue("bind_addr", InetAddress.getByName(address));
+    tcp.setValue("bind_port", PORT);
+    tcp.setValue("port_range", 0);
+
+    final GMS gms = new GMS();
+    gms.setValue("print_local_addr", false);
+
+    return new JChannel(
+        tcp,
+        new DiscoveryRequestCounter(discoveryRequests),
+        ping,
+        new MERGE3(),
+        new NAKACK2(),
+        new UNICAST3(),
+        new STABLE(),
+        gms).name("node-" + index);
+  }
+
+  private static long usedHeap() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  private static String address(final int index) {
+    return "127.0." + (index / 250) + "." + (index % 250 + 2);
+  }
+
+  private static String instanceId(final int index) {
+    return String.format("i-%017x", index);
+  }
+
+  private static class Result {
+    private final int channels;
+    private final boolean fullView;
+    private final long timeToFullView;
+    private final long discoveryRequests;
+    private final long ec2Calls;
+    private final long heapUsed;
+
+    private Result(
+        final int channels,
+        final boolean fullView,
+        final long timeToFullView,
+        final long discoveryRequests,
+        final long ec2Calls,
+        final long heapUsed) {
+      this.channels = channels;
+      this.fullView = fullView;
+      this.timeToFullView = timeToFullView;
+      this.discoveryRequests = discoveryRequests;
+      this.ec2Calls = ec2Calls;
+      this.heapUsed = heapUsed;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "channels=%d fullView=%b timeToFullViewMs=%d discoveryRequests=%d ec2Calls=%d heapUsedKb=%d",
+          channels, fullView, timeToFullView, discoveryRequests, ec2Calls, heapUsed / 1024);
+    }
+  }
+
+  /**
+   * AWS_PING with the instance identity and the EC2 client substituted.
+   */
+  private static class SimulatedPing extends AWS_PING {
+    private final InstanceIdentity identity;
+    private final AmazonEC2 fleetEc2;
+
+    private SimulatedPing(final InstanceIdentity identity, final AmazonEC2 fleetEc2) {
+      this.identity = identity;
+      this.fleetEc2 = fleetEc2;
+    }
+
+    @Override
+    protected InstanceIdentity getInstanceIdentity(final HttpClient client) {
+      return identity;
+    }
+
+    @Override
+    protected AmazonEC2 createEc2Client(final String region, final AWSCredentialsProvider credentials) {
+      return fleetEc2;
+    }
+  }
+
+  /**
+   * Counts the discovery requests AWS_PING sends down to the transport.
+   */
+  private static class DiscoveryRequestCounter extends Protocol {
+    private final short pingId = ClassConfigurator.getProtocolId(AWS_PING.class);
+    private final AtomicLong count;
+
+    private DiscoveryRequestCounter(final AtomicLong count) {
+      this.count = count;
+    }
+
+    @Override
+    public Object down(final Message msg) {
+      if (msg.getDest() != null && msg.getHeader(pingId) != null) {
+        count.incrementAndGet();
+      }
+      return down_prot.down(msg);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.AvailabilityZone;
+import com.amazonaws.services.ec2.model.DescribeAvailabilityZonesRequest;
+import com.amazonaws.services.ec2.model.DescribeAvailabilityZonesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.meltmedia.jgroups.aws.InstancesUtilsTest.page;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ShardedInstancesUtilsTest {
+  private static final List<Filter> RUNNING =
+      Collections.singletonList(new Filter("instance-state-name", Collections.singletonList("running")));
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shardsByAvailabilityZoneAndMerges() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeAvailabilityZones(any(DescribeAvailabilityZonesRequest.class))).thenReturn(
+        new DescribeAvailabilityZonesResult().withAvailabilityZones(
+            new AvailabilityZone().withZoneName("us-east-1b"),
+            new AvailabilityZone().withZoneName("us-east-1a"),
+            new AvailabilityZone().withZoneName("us-east-1c")));
+    when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenAnswer(invocation -> {
+      switch (shard((DescribeInstancesRequest) invocation.getArguments()[0])) {
+        case "us-east-1a":
+          return page(null, "10.0.0.1", "10.0.0.2");
+        case "us-east-1b":
+          return page(null, "10.0.0.2", "10.0.1.1");
+        default:
+          return page(null, "10.0.2.1");
+      }
+    });
+    final ShardedInstancesUtils utils = sharded(ec2, Collections.emptyList(), 2);
+
+    assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.1.1", "10.0.2.1"), utils.getPrivateIpAddresses(RUNNING, page -> {}));
+    assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.1.1", "10.0.2.1"), utils.getPrivateIpAddresses(RUNNING, page -> {}));
+
+    verify(ec2, times(1)).describeAvailabilityZones(any(DescribeAvailabilityZonesRequest.class));
+    verify(ec2, times(6)).describeInstances(any(DescribeInstancesRequest.class));
+    assertEquals(Arrays.asList("us-east-1a", "us-east-1b", "us-east-1c"), Arrays.asList(utils.getLatencies().keySet().toArray()));
+  }
+
+  @Test
+  public void parallelismIsBounded() {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenAnswer(invocation -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      Thread.sleep(50);
+      running.decrementAndGet();
+      return page(null, "10.0.0." + shard((DescribeInstancesRequest) invocation.getArguments()[0]));
+    });
+
+    final List<String> addresses = sharded(ec2, Arrays.asList("1", "2", "3", "4", "5", "6"), 3)
+        .getPrivateIpAddresses(RUNNING, page -> {});
+
+    assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4", "10.0.0.5", "10.0.0.6"), addresses);
+    assertTrue("shards ran one at a time", maxRunning.get() > 1);
+    assertTrue("more shards ran than allowed", maxRunning.get() <= 3);
+  }
+
+  @Test
+  public void filtersNamingTheShardFilterAreNotSplit() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(page(null, "10.0.0.1"));
+
+    sharded(ec2, Arrays.asList("us-east-1a", "us-east-1b"), 2).getPrivateIpAddresses(
+        Collections.singletonList(new Filter(ShardedInstancesUtils.AVAILABILITY_ZONE_FILTER, Collections.singletonList("us-east-1a"))),
+        page -> {});
+
+    verify(ec2, times(1)).describeInstances(any(DescribeInstancesRequest.class));
+  }
+
+  @Test
+  public void failedShardFailsTheLookup() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenAnswer(invocation -> {
+      if ("us-east-1b".equals(shard((DescribeInstancesRequest) invocation.getArguments()[0]))) {
+        throw new AmazonServiceException("throttled");
+      }
+      return page(null, "10.0.0.1");
+    });
+
+    try {
+      sharded(ec2, Arrays.asList("us-east-1a", "us-east-1b", "us-east-1c"), 2).getPrivateIpAddresses(RUNNING, page -> {});
+      fail("the failed shard was ignored");
+    } catch (AmazonServiceException e) {
+      assertEquals("throttled", e.getErrorMessage());
+    }
+  }
+
+  @Test
+  public void otherFiltersNeedValues() {
+    try {
+      new ShardedInstancesUtils(mock(AmazonEC2.class), 0, null, "instance-type", Collections.emptyList(), executor, 4);
+      fail("a shard filter without values was accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void valuesAreParsed() {
+    assertEquals(Arrays.asList("us-east-1a", "us-east-1b"), ShardedInstancesUtils.parseValues(" us-east-1a, ,us-east-1b,us-east-1a"));
+    assertEquals(Collections.emptyList(), ShardedInstancesUtils.parseValues(null));
+  }
+
+  private ShardedInstancesUtils sharded(final AmazonEC2 ec2, final List<String> values, final int parallelism) {
+    return new ShardedInstancesUtils(
+        ec2, 0, null, ShardedInstancesUtils.AVAILABILITY_ZONE_FILTER, values, executor, parallelism);
+  }
+
+  private static String shard(final DescribeInstancesRequest request) {
+    return request.getFilters().stream()
+        .filter(filter -> ShardedInstancesUtils.AVAILABILITY_ZONE_FILTER.equals(filter.getName()))
+        .map(filter -> filter.getValues().get(0))
+        .findFirst()
+        .orElse("");
+  }
+}
@@ -0,0 +1,119 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.google.common.io.Resources;
+import org.apache.http.client.HttpClient;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.TCP;
+import org.jgroups.protocols.pbcast.GMS;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.io.Resources.getResource;
+
+/**
+ * Reports how many classes AWS_PING loads, and how long it takes, from the creation of a channel to the end of its
+ * first discovery lookup.  The instance identity is read from a recorded document and the EC2 fleet is simulated, so
+ * no network calls are made.  Class counts are only meaningful in a fresh JVM, so it is skipped unless run on its own
+ * with -Daws.ping.startup=true:
+ *
+ * <pre>
+ * mvn test -Dtest=StartupBenchmarkTest -Daws.ping.startup=true
+ * </pre>
+ *
+ * The report is appended to target/aws-ping-startup-report.txt, or the file named by aws.ping.startup.report.
+ */
+public class StartupBenchmarkTest {
+  private PerformanceReport report;
+
+  @Before
+  public void setUp() {
+    report = PerformanceReport.requested("startup", "startup benchmark");
+  }
+
+  @Test
+  public void timeToFirstDiscovery() throws Exception {
+    final String document = Resources.toString(getResource("instance-identity.json"), StandardCharsets.UTF_8);
+    final CompletableFuture<Long> firstLookup = new CompletableFuture<>();
+    final AmazonEC2 ec2 = firstLookupRecorder(
+        Mocks.fleetEc2(Collections.singletonList("127.0.0.1"), new AtomicLong()), firstLookup);
+    final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+
+    final long classesBefore = classLoading.getTotalLoadedClassCount();
+    final long start = System.nanoTime();
+    final JChannel channel = channel(document, ec2);
+    try {
+      final long end = firstLookup.get(30, TimeUnit.SECONDS);
+      final long classesLoaded = classLoading.getTotalLoadedClassCount() - classesBefore;
+      report.write(String.format("timeToFirstDiscoveryMs=%d classesLoaded=%d totalClassesLoaded=%d",
+          TimeUnit.NANOSECONDS.toMillis(end - start), classesLoaded, classLoading.getTotalLoadedClassCount()));
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static JChannel channel(final String document, final AmazonEC2 ec2) throws Exception {
+    final BenchmarkPing ping = new BenchmarkPing(document, ec2);
+    ping.port_range = 0;
+
+    final TCP tcp = new TCP();
+    tcp.setValue("bind_addr", InetAddress.getLoopbackAddress());
+    tcp.setValue("port_range", 0);
+
+    final GMS gms = new GMS();
+    gms.setValue("print_local_addr", false);
+
+    return new JChannel(tcp, ping, gms);
+  }
+
+  /**
+   * Wraps a client so the time the first describeInstances call returns is recorded.
+   */
+  private static AmazonEC2 firstLookupRecorder(final AmazonEC2 ec2, final CompletableFuture<Long> firstLookup) {
+    return (AmazonEC2) Proxy.newProxyInstance(
+        AmazonEC2.class.getClassLoader(),
+        new Class<?>[]{AmazonEC2.class},
+        (proxy, method, args) -> {
+          final Object result = method.invoke(ec2, args);
+          if ("describeInstances".equals(method.getName())) {
+            firstLookup.complete(System.nanoTime());
+          }
+          return result;
+        });
+  }
+
+  /**
+   * AWS_PING reading a recorded identity document, against a simulated fleet.
+   */
+  private static class BenchmarkPing extends AWS_PING {
+    private final String document;
+    private final AmazonEC2 fleetEc2;
+
+    private BenchmarkPing(final String document, final AmazonEC2 fleetEc2) {
+      this.document = document;
+      this.fleetEc2 = fleetEc2;
+    }
+
+    @Override
+    protected InstanceIdentity getInstanceIdentity(final HttpClient client) throws IOException {
+      return InstanceIdentity.fromDocument(document);
+    }
+
+    @Override
+    protected AmazonEC2 createEc2Client(final String region, final AWSCredentialsProvider credentials) {
+      return fleetEc2;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.meltmedia.jgroups.aws;
+
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StartupJitterTest {
+  private static final String LAUNCH = "2016-11-19T16:32:11Z";
+  private static final long NOW = Instant.parse(LAUNCH).toEpochMilli() + 30000;
+
+  @Test
+  public void disabledByDefault() {
+    assertEquals(0, StartupJitter.delay(identity("i-1", LAUNCH), 0, 600000, 3000, NOW));
+  }
+
+  @Test
+  public void delayIsStableForAnInstance() {
+    assertEquals(
+        StartupJitter.delay(identity("i-0123456789abcdef0", LAUNCH), 10000, 600000, 0, NOW),
+        StartupJitter.delay(identity("i-0123456789abcdef0", LAUNCH), 10000, 600000, 0, NOW));
+  }
+
+  @Test
+  public void delaysAreSpreadAcrossAFleet() {
+    final int[] buckets = new int[10];
+    for (int i = 0; i < 1000; i++) {
+      final long delay = StartupJitter.delay(identity(String.format("i-%017x", i), LAUNCH), 9999, 600000, 0, NOW);
+      assertTrue(delay >= 0 && delay <= 9999);
+      buckets[(int) (delay / 1000)]++;
+    }
+    for (final int bucket : buckets) {
+      assertTrue("uneven spread " + bucket, bucket > 50 && bucket < 150);
+    }
+  }
+
+  @Test
+  public void delayIsCappedByJoinTimeout() {
+    for (int i = 0; i < 100; i++) {
+      assertTrue(StartupJitter.delay(identity("i-" + i, LAUNCH), 60000, 600000, 3000, NOW) <= 3000);
+    }
+  }
+
+  @Test
+  public void olderInstancesAreNotDelayed() {
+    assertEquals(0, StartupJitter.delay(identity("i-1", LAUNCH), 10000, 10000, 0, NOW + 60000));
+  }
+
+  @Test
+  public void unknownLaunchTimeIsDelayed() {
+    long total = 0;
+    for (int i = 0; i < 10; i++) {
+      total += StartupJitter.delay(identity("i-" + i, null), 10000, 600000, 0, NOW);
+    }
+    assertTrue(total > 0);
+  }
+
+  private static InstanceIdentity identity(final String instanceId, final String pendingTime) {
+    return new InstanceIdentity("us-east-1a", "10.0.0.1", instanceId, "m5.large", "ami-1", "x86_64", "us-east-1", pendingTime);
+  }
+}
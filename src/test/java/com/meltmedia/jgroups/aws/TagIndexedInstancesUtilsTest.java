@@ -0,0 +1,232 @@
+package com.meltmedia.jgroups.aws;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Tag;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TagIndexedInstancesUtilsTest {
+  private static final Filter RUNNING = new Filter("instance-state-name", Collections.singletonList("running"));
+
+  @Test
+  public void clustersShareOneQuery() {
+    final AtomicLong calls = new AtomicLong();
+    final List<DescribeInstancesRequest> requests = new CopyOnWriteArrayList<>();
+    final AmazonEC2 ec2 = taggedFleetEc2(calls, requests, 0);
+    final TagIndexedInstancesUtils a = indexed(ec2, 60000);
+    final TagIndexedInstancesUtils b = indexed(ec2, 60000);
+    try {
+      assertEquals(Arrays.asList("10.0.0.1", "10.0.0.3"), a.getPrivateIpAddresses(clusterFilters("a"), page -> {}));
+      assertEquals(Collections.singletonList("10.0.0.2"), b.getPrivateIpAddresses(clusterFilters("b"), page -> {}));
+      assertEquals(Collections.emptyList(), b.getPrivateIpAddresses(clusterFilters("c"), page -> {}));
+
+      assertEquals(1, calls.get());
+      assertEquals(1, a.getQueries());
+      assertEquals(3, a.getLookups());
+      final List<Filter> queried = requests.get(0).getFilters();
+      assertTrue(queried.contains(new Filter("tag-key", Collections.singletonList("cluster"))));
+      assertTrue(queried.contains(RUNNING));
+      assertTrue(queried.stream().noneMatch(filter -> filter.getName().startsWith("tag:")));
+    } finally {
+      a.release();
+      b.release();
+    }
+  }
+
+  @Test
+  public void queryingLookupReceivesItsOwnPages() {
+    final AmazonEC2 ec2 = taggedFleetEc2(new AtomicLong(), new CopyOnWriteArrayList<>(), 0);
+    final TagIndexedInstancesUtils a = indexed(ec2, 0);
+    final List<String> streamed = new ArrayList<>();
+    try {
+      a.getPrivateIpAddresses(clusterFilters("a"), streamed::addAll);
+      assertEquals(Arrays.asList("10.0.0.1", "10.0.0.3"), streamed);
+    } finally {
+      a.release();
+    }
+  }
+
+  @Test
+  public void expiredSnapshotsAreQueriedAgain() {
+    final AtomicLong calls = new AtomicLong();
+    final AmazonEC2 ec2 = taggedFleetEc2(calls, new CopyOnWriteArrayList<>(), 0);
+    final TagIndexedInstancesUtils a = indexed(ec2, 0);
+    try {
+      a.getPrivateIpAddresses(clusterFilters("a"), page -> {});
+      a.getPrivateIpAddresses(clusterFilters("a"), page -> {});
+      assertEquals(2, calls.get());
+    } finally {
+      a.release();
+    }
+  }
+
+  @Test
+  public void concurrentLookupsShareTheQueryInFlight() throws Exception {
+    final AtomicLong calls = new AtomicLong();
+    final AmazonEC2 ec2 = taggedFleetEc2(calls, new CopyOnWriteArrayList<>(), 200);
+    final TagIndexedInstancesUtils a = indexed(ec2, 0);
+    final TagIndexedInstancesUtils b = indexed(ec2, 0);
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final CompletableFuture<List<String>> first =
+          CompletableFuture.supplyAsync(() -> a.getPrivateIpAddresses(clusterFilters("a"), page -> {}), executor);
+      Thread.sleep(50);
+      final CompletableFuture<List<String>> second =
+          CompletableFuture.supplyAsync(() -> b.getPrivateIpAddresses(clusterFilters("b"), page -> {}), executor);
+
+      assertEquals(Arrays.asList("10.0.0.1", "10.0.0.3"), first.get());
+      assertEquals(Collections.singletonList("10.0.0.2"), second.get());
+      assertEquals(1, calls.get());
+    } finally {
+      executor.shutdownNow();
+      a.release();
+      b.release();
+    }
+  }
+
+  @Test
+  public void releasedSnapshotsAreNotShared() {
+    final AtomicLong calls = new AtomicLong();
+    final AmazonEC2 ec2 = taggedFleetEc2(calls, new CopyOnWriteArrayList<>(), 0);
+    final TagIndexedInstancesUtils a = indexed(ec2, 60000);
+    a.getPrivateIpAddresses(clusterFilters("a"), page -> {});
+    a.release();
+
+    final TagIndexedInstancesUtils b = indexed(ec2, 60000);
+    try {
+      b.getPrivateIpAddresses(clusterFilters("b"), page -> {});
+      assertEquals(2, calls.get());
+    } finally {
+      b.release();
+    }
+  }
+
+  @Test
+  public void lookupsWithOtherSettingsAreNotShared() {
+    final AtomicLong calls = new AtomicLong();
+    final AmazonEC2 ec2 = taggedFleetEc2(calls, new CopyOnWriteArrayList<>(), 0);
+    final TagIndexedInstancesUtils a = indexed(ec2, 60000);
+    final TagIndexedInstancesUtils b = new TagIndexedInstancesUtils(ec2, new InstancesUtils(ec2, 50), 60000);
+    try {
+      a.getPrivateIpAddresses(clusterFilters("a"), page -> {});
+      b.getPrivateIpAddresses(clusterFilters("b"), page -> {});
+      assertEquals(2, calls.get());
+    } finally {
+      a.release();
+      b.release();
+    }
+  }
+
+  @Test
+  public void snapshotsAreQueriedWithTheLookupOfTheCaller() {
+    final AtomicLong calls = new AtomicLong();
+    final AmazonEC2 ec2 = taggedFleetEc2(calls, new CopyOnWriteArrayList<>(), 0);
+    final AtomicBoolean stopped = new AtomicBoolean();
+    final TagIndexedInstancesUtils a = new TagIndexedInstancesUtils(ec2, new InstancesUtils(ec2, 0) {
+      @Override
+      public List<Instance> getInstances(final List<Filter> filters, final Consumer<List<Instance>> pageConsumer) {
+        if (stopped.get()) {
+          throw new IllegalStateException("the lookup of a stopped protocol was used");
+        }
+        return super.getInstances(filters, pageConsumer);
+      }
+    }, 0);
+    final TagIndexedInstancesUtils b = indexed(ec2, 0);
+    try {
+      a.getPrivateIpAddresses(clusterFilters("a"), page -> {});
+      b.getPrivateIpAddresses(clusterFilters("b"), page -> {});
+      stopped.set(true);
+
+      assertEquals(Collections.singletonList("10.0.0.2"), b.getPrivateIpAddresses(clusterFilters("b"), page -> {}));
+      assertEquals(3, calls.get());
+      assertEquals(3, b.getQueries());
+    } finally {
+      a.release();
+      b.release();
+    }
+  }
+
+  @Test
+  public void wildcardTagValuesAreLeftToEc2() {
+    final AtomicLong calls = new AtomicLong();
+    final List<DescribeInstancesRequest> requests = new CopyOnWriteArrayList<>();
+    final TagIndexedInstancesUtils a = indexed(taggedFleetEc2(calls, requests, 0), 60000);
+    final Filter web = new Filter("tag:Name", Collections.singletonList("web-*"));
+    try {
+      assertEquals(
+          Arrays.asList("10.0.0.1", "10.0.0.3"),
+          a.getPrivateIpAddresses(Arrays.asList(new Filter("tag:cluster", Collections.singletonList("a")), web, RUNNING),
+              page -> {}));
+
+      final List<Filter> queried = requests.get(0).getFilters();
+      assertTrue(queried.contains(web));
+      assertTrue(queried.contains(new Filter("tag-key", Collections.singletonList("cluster"))));
+    } finally {
+      a.release();
+    }
+  }
+
+  @Test
+  public void lookupsWithoutTagsAreNotIndexed() {
+    final AtomicLong calls = new AtomicLong();
+    final List<DescribeInstancesRequest> requests = new CopyOnWriteArrayList<>();
+    final TagIndexedInstancesUtils a = indexed(taggedFleetEc2(calls, requests, 0), 60000);
+    try {
+      assertEquals(4, a.getPrivateIpAddresses(Collections.singletonList(RUNNING), page -> {}).size());
+      assertEquals(0, a.getQueries());
+      assertEquals(Collections.singletonList(RUNNING), requests.get(0).getFilters());
+    } finally {
+      a.release();
+    }
+  }
+
+  private static TagIndexedInstancesUtils indexed(final AmazonEC2 ec2, final long maxAge) {
+    return new TagIndexedInstancesUtils(ec2, new InstancesUtils(ec2, 0), maxAge);
+  }
+
+  private static List<Filter> clusterFilters(final String cluster) {
+    return Arrays.asList(new Filter("tag:cluster", Collections.singletonList(cluster)), RUNNING);
+  }
+
+  /**
+   * A fleet of three instances in clusters a, b and a, and one untagged instance, which answers DescribeInstances
+   * regardless of the filters, after a delay.
+   */
+  private static AmazonEC2 taggedFleetEc2(
+      final AtomicLong calls,
+      final List<DescribeInstancesRequest> requests,
+      final long delay) {
+    return Mocks.instancesEc2(
+        Arrays.asList(
+            new Instance().withInstanceId("i-1").withPrivateIpAddress("10.0.0.1").withTags(new Tag("cluster", "a")),
+            new Instance().withInstanceId("i-2").withPrivateIpAddress("10.0.0.2").withTags(new Tag("cluster", "b")),
+            new Instance().withInstanceId("i-3").withPrivateIpAddress("10.0.0.3").withTags(new Tag("cluster", "a")),
+            new Instance().withInstanceId("i-4").withPrivateIpAddress("10.0.0.4")),
+        calls,
+        request -> {
+          requests.add(request);
+          try {
+            Thread.sleep(delay);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+  }
+}
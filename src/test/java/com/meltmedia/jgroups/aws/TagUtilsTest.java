@@ -1,12 +1,26 @@
 package com.meltmedia.jgroups.aws;
 
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeTagsRequest;
+import com.amazonaws.services.ec2.model.DescribeTagsResult;
+import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TagDescription;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static com.meltmedia.jgroups.aws.Mocks.ec2Mock;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class TagUtilsTest {
   private static InstanceIdentity instanceIdentity = new InstanceIdentity(
@@ -68,4 +82,59 @@ public class TagUtilsTest {
 
     new TagsUtils(ec2Mock(instanceTag1, instanceTag2), instanceIdentity, "tag1, tag2, tag3").validateTags();
   }
+
+  @Test
+  public void describesOnlyConfiguredTagsOfInstance() {
+    final AmazonEC2 ec2 = ec2Mock(new Tag("tag1", "value1"), new Tag("tag2", "value2"));
+    new TagsUtils(ec2, instanceIdentity, "tag1, tag2").validateTags();
+
+    final ArgumentCaptor<DescribeTagsRequest> request = ArgumentCaptor.forClass(DescribeTagsRequest.class);
+    verify(ec2).describeTags(request.capture());
+    final List<Filter> filters = request.getValue().getFilters();
+    assertEquals(2, filters.size());
+    assertEquals("resource-id", filters.get(0).getName());
+    assertEquals(Collections.singletonList("instance_id"), filters.get(0).getValues());
+    assertEquals("key", filters.get(1).getName());
+    assertEquals(Arrays.asList("tag1", "tag2"), filters.get(1).getValues());
+  }
+
+  @Test
+  public void validationWithoutConfiguredTagsSkipsLookup() {
+    final AmazonEC2 ec2 = ec2Mock(new Tag("tag1", "value1"));
+    final TagsUtils tagsUtils = new TagsUtils(ec2, instanceIdentity, null).validateTags();
+
+    assertTrue(tagsUtils.getInstanceTagFilters().isEmpty());
+    verify(ec2, never()).describeTags(any(DescribeTagsRequest.class));
+  }
+
+  @Test
+  public void tagFiltersAreLookedUpOnce() {
+    final AmazonEC2 ec2 = ec2Mock(new Tag("tag1", "value1"), new Tag("tag2", "value2"));
+    final TagsUtils tagsUtils = new TagsUtils(ec2, instanceIdentity, "tag2").validateTags();
+
+    final List<Filter> filters = tagsUtils.getInstanceTagFilters();
+    tagsUtils.getInstanceTagFilters();
+
+    assertEquals(1, filters.size());
+    assertEquals("tag:tag2", filters.get(0).getName());
+    assertEquals(Collections.singletonList("value2"), filters.get(0).getValues());
+    verify(ec2, times(1)).describeTags(any(DescribeTagsRequest.class));
+  }
+
+  @Test
+  public void followsNextToken() {
+    final AmazonEC2 ec2 = mock(AmazonEC2.class);
+    when(ec2.describeTags(any(DescribeTagsRequest.class))).thenReturn(
+        new DescribeTagsResult()
+            .withTags(new TagDescription().withKey("tag1").withValue("value1"))
+            .withNextToken("next"),
+        new DescribeTagsResult()
+            .withTags(new TagDescription().withKey("tag2").withValue("value2")));
+
+    final List<Tag> tags = new TagsUtils(ec2, instanceIdentity, null).getInstanceTags();
+
+    assertEquals(2, tags.size());
+    assertEquals("tag1", tags.get(0).getKey());
+    assertEquals("tag2", tags.get(1).getKey());
+  }
 }